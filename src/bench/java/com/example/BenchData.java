@@ -0,0 +1,69 @@
+package com.example;
+
+/**
+ * Test data for the benchmarks, which run against MemoryStorage so they need no database.
+ * @Date: 18-10-2026
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bson.Document;
+
+
+final class BenchData {
+
+    private BenchData(){
+    }
+
+    static String username(int i){
+        return "student" + i;
+    }
+
+    /**
+     * Builds Users documents the way the Users collection holds them, without images.
+     * @param count How many.
+     * @return The documents, usernames student0 to student(count - 1).
+     */
+    static List<Document> users(int count){
+        List<Document> docs = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            docs.add( new Document("Display Name", "Student " + i).append("Username", username(i))
+                .append("Password", "pw" + i).append("Contact Information", username(i) + "@example.edu")
+                .append("Interests", "chess, hiking").append("About Me", "First year").append("Permission Level", "0")
+                .append("Photo Gallery", new ArrayList<String>()) );
+        }
+        return docs;
+    }
+
+    /**
+     * Stores users and their leaderboard entries, with random points so the ranking isn't filled in order.
+     * @param count How many.
+     * @return The storage.
+     */
+    static MemoryStorage storage(int count){
+        MemoryStorage storage = new MemoryStorage();
+        for(Document user : users(count)){
+            storage.users().insert(user);
+        }
+        for(Document entry : leaderboard(count)){
+            storage.leaderboard().insert(entry);
+        }
+        return storage;
+    }
+
+    /**
+     * Builds Leaderboard documents with random points.
+     * @param count How many.
+     * @return The documents.
+     */
+    static List<Document> leaderboard(int count){
+        Random random = new Random(42);
+        List<Document> docs = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            docs.add( new Document("Username", username(i)).append("Points", random.nextInt(50000)) );
+        }
+        return docs;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example;
+
+/**
+ * The base64 image paths of User: encoding a profile picture for upload, decoding one for display, and decoding an
+ * upload into the bytes the ImageRepository keeps.
+ * @Date: 18-10-2026
+ */
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageBenchmark {
+
+    //Width and height of the square test image
+    @Param({ "64", "320" })
+    public int size;
+
+    private User user;
+    private BufferedImage image;
+    private String base64;
+    private String dataUrl;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        user = new User( BenchData.users(1).get(0), new MemoryStorage() );
+
+        //A gradient with some shapes, so PNG has something to compress but doesn't collapse to nothing
+        image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint( new GradientPaint(0, 0, Color.ORANGE, size, size, Color.BLUE) );
+        g.fillRect(0, 0, size, size);
+        g.setColor(Color.WHITE);
+        g.fillOval(size / 4, size / 4, size / 2, size / 2);
+        g.dispose();
+
+        base64 = Base64.getEncoder().encodeToString( User.toPng(image) );
+        dataUrl = "data:image/png;base64," + base64;
+    }
+
+    @Benchmark
+    public String encode(){
+        return Base64.getEncoder().encodeToString( User.toPng(image) );
+    }
+
+    @Benchmark
+    public BufferedImage decode(){
+        return user.base64StringToImg(base64);
+    }
+
+    @Benchmark
+    public byte[] decodeUpload(){
+        return Images.decodeUpload(dataUrl);
+    }
+}
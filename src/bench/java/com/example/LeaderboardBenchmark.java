@@ -0,0 +1,60 @@
+package com.example;
+
+/**
+ * The /ReturnLBInformation path: LeaderBoard.returnLists() walking the sorted ranking, and the response body built
+ * from it.
+ * @Date: 18-10-2026
+ */
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LeaderboardBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int users;
+
+    private LeaderBoard leaderBoard;
+    private ArrayList<ArrayList<String>> lists;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        leaderBoard = new LeaderBoard( BenchData.storage(users) );
+        lists = leaderBoard.returnLists();
+    }
+
+    @Benchmark
+    public ArrayList<ArrayList<String>> returnLists(){
+        return leaderBoard.returnLists();
+    }
+
+    @Benchmark
+    public byte[] buildResponse(){
+        return ReturnLBInformation.buildResponse(lists);
+    }
+
+    @Benchmark
+    public byte[] returnLBInformation(){
+        return ReturnLBInformation.buildResponse( leaderBoard.returnLists() );
+    }
+}
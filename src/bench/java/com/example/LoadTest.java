@@ -0,0 +1,448 @@
+package com.example;
+
+/**
+ * End-to-end load test: replays a mix of student traffic against a Webserver at a fixed arrival rate and reports
+ * throughput and latency percentiles per endpoint. Arrivals are open-loop (Poisson, at the configured rate whether or
+ * not earlier requests have been answered) and latency is measured from when a request was due, not from when a
+ * client thread got round to sending it, so a server that falls behind shows it in the percentiles instead of
+ * quietly slowing the test down.
+ *
+ * Unless url= is given, a Webserver is started in this JVM against MONGODB_URL (a local mongod by default), or with
+ * STORAGE_BACKEND=memory against MemoryStorage, which needs no database at all. Options are key=value arguments:
+ *   url=http://host:port   test a server that's already running instead
+ *   rate=200               requests per second, across all endpoints
+ *   duration=30            seconds of measured load, after warmup=5 seconds that aren't counted
+ *   users=1000             students, created through /CreateNewUser before the run
+ *   mix=login:5,profile:60,dorm:10,leaderboard:25   relative weight of each scenario
+ *   clients=256            client threads, the most requests in flight at once
+ *   out=target/load-result.json
+ * Arguments in UPPER_CASE are server settings (SERVER_THREADS=64, COMPRESSION=false, ...) for the started server.
+ * Logins check a hashed password, so their latency depends on PASSWORD_ITERATIONS and PASSWORD_THREADS. Students
+ * send the session token from signing up or logging in, so SESSION_REQUIRED=true works too.
+ * @Date: 18-10-2026
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoClientURI;
+
+
+public class LoadTest {
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    private static final String[] QUANTILE_NAMES = { "p50Millis", "p90Millis", "p99Millis", "p999Millis" };
+    private static final String[] DORMS = { "Stetson East", "Stetson West", "White Hall", "Speare Hall", "Kennedy Hall" };
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    //Each student's latest session token, from signing up or logging in
+    private static volatile AtomicReferenceArray<String> tokens = new AtomicReferenceArray<>(0);
+
+    /**
+     * One kind of request in the mix.
+     */
+    enum Scenario {
+        LOGIN("/CreateOldUser"),
+        PROFILE("/ReturnProfile"),
+        DORM("/SelectedDorm"),
+        LEADERBOARD("/ReturnLBInfo");
+
+        final String path;
+
+        Scenario(String path){
+            this.path = path;
+        }
+
+        /**
+         * Sends this scenario's request as the given student.
+         * @return The status code.
+         */
+        int send(String baseUrl, int student) throws IOException{
+            String username = "loadtest" + student;
+            //Students with a session send its token, ones without (created by an earlier run) name themselves
+            String token = student < tokens.length() ? tokens.get(student) : null;
+            String as = token == null ? form("Username", username) : form("Token", token);
+            switch(this){
+                case LOGIN:
+                    return post(baseUrl + path, form("Username", username, "Password", "pw" + student), student);
+                case PROFILE:
+                    return get(baseUrl + path + "?" + as);
+                case DORM:
+                    String dorm = DORMS[ThreadLocalRandom.current().nextInt(DORMS.length)];
+                    return post(baseUrl + path, as + "&" + form("SelectedDorm", dorm), student);
+                default:
+                    return get(baseUrl + path);
+            }
+        }
+    }
+
+    /**
+     * What was measured for one scenario.
+     */
+    static class Stats {
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();     //Anything but 2xx/304, including timeouts and refused connections
+        final LongAdder shed = new LongAdder();       //503s, the server turning work away
+
+        void record(long nanos, int status){
+            latency.record(nanos);
+            requests.increment();
+            if(status == 503){
+                shed.increment();
+            }
+            if( status < 200 || (status >= 300 && status != 304) ){
+                errors.increment();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception{
+        Map<String, String> options = new LinkedHashMap<>();
+        for(String arg : args){
+            int equals = arg.indexOf('=');
+            if(equals <= 0){
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            String key = arg.substring(0, equals);
+            if( key.equals(key.toUpperCase()) ){
+                System.setProperty(key, arg.substring(equals + 1));
+            }
+            else{
+                options.put(key, arg.substring(equals + 1));
+            }
+        }
+
+        final double rate = Double.parseDouble(option(options, "rate", "200"));
+        final int durationSeconds = Integer.parseInt(option(options, "duration", "30"));
+        final int warmupSeconds = Integer.parseInt(option(options, "warmup", "5"));
+        final int users = Integer.parseInt(option(options, "users", "1000"));
+        final int clients = Integer.parseInt(option(options, "clients", "256"));
+        Map<Scenario, Integer> mix = parseMix(option(options, "mix", "login:5,profile:60,dorm:10,leaderboard:25"));
+        File out = new File(option(options, "out", "target/load-result.json"));
+
+        //Keep a connection per client thread alive instead of the default 5
+        System.setProperty("http.maxConnections", String.valueOf(clients));
+
+        Webserver server = null;
+        MongoClient mongoClient = null;
+        String baseUrl = options.get("url");
+        if(baseUrl == null){
+            int port = freePort();
+            if( "memory".equalsIgnoreCase( ServerConfig.get("STORAGE_BACKEND", "mongo") ) ){
+                server = new Webserver(port, new MemoryStorage());
+            }
+            else{
+                mongoClient = new MongoClient( new MongoClientURI(ServerConfig.get("MONGODB_URL", "mongodb://localhost:27017"),
+                    MongoClientOptions.builder().addCommandListener(Metrics.mongoCommandListener())) );
+                server = new Webserver(port, mongoClient);
+            }
+            baseUrl = "http://localhost:" + port;
+        }
+
+        try{
+            createStudents(baseUrl, users);
+            Map<Scenario, Stats> stats = run(baseUrl, rate, warmupSeconds, durationSeconds, users, clients, mix);
+            JSONObject result = report(stats, rate, durationSeconds, users, clients);
+            if( out.getParentFile() != null ){
+                out.getParentFile().mkdirs();
+            }
+            Files.write(out.toPath(), result.toString(2).getBytes(StandardCharsets.UTF_8));
+            System.out.println("Results written to " + out.getPath());
+        }
+        finally{
+            if(server != null){
+                server.stop(0);
+            }
+            if(mongoClient != null){
+                mongoClient.close();
+            }
+        }
+    }
+
+    /**
+     * Sends requests at the given rate for warmup plus duration seconds and waits for the last ones to be answered.
+     * @return The measurements from after the warmup, by scenario.
+     */
+    static Map<Scenario, Stats> run(final String baseUrl, double rate, int warmupSeconds, int durationSeconds,
+            final int users, int clients, Map<Scenario, Integer> mix) throws InterruptedException{
+
+        final Map<Scenario, Stats> measured = new LinkedHashMap<>();
+        final Map<Scenario, Stats> warmup = new LinkedHashMap<>();
+        int totalWeight = 0;
+        for(Map.Entry<Scenario, Integer> entry : mix.entrySet()){
+            measured.put(entry.getKey(), new Stats());
+            warmup.put(entry.getKey(), new Stats());
+            totalWeight += entry.getValue();
+        }
+        //Weighted pick: scenario i is chosen when the roll is below cumulative[i]
+        final Scenario[] scenarios = mix.keySet().toArray(new Scenario[0]);
+        final int[] cumulative = new int[scenarios.length];
+        int sum = 0;
+        for(int i = 0; i < scenarios.length; i++){
+            sum += mix.get(scenarios[i]);
+            cumulative[i] = sum;
+        }
+
+        System.out.printf("Running %.0f req/s for %ds (+%ds warmup) with %d clients%n", rate, durationSeconds,
+            warmupSeconds, clients);
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        Random random = new Random();
+        final AtomicLong late = new AtomicLong();
+        long start = System.nanoTime();
+        final long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        double meanGapNanos = 1e9 / rate;
+
+        long due = start;
+        while(due < end){
+            long wait = due - System.nanoTime();
+            if(wait > 0){
+                LockSupport.parkNanos(wait);
+            }
+            else if(-wait > TimeUnit.MILLISECONDS.toNanos(100)){
+                late.incrementAndGet();
+            }
+
+            int roll = random.nextInt(totalWeight);
+            int pick = 0;
+            while(roll >= cumulative[pick]){
+                pick++;
+            }
+            final Scenario scenario = scenarios[pick];
+            final int student = random.nextInt(users);
+            final long intended = due;
+            pool.execute(new Runnable(){
+                public void run(){
+                    int status;
+                    try{
+                        status = scenario.send(baseUrl, student);
+                    }
+                    catch(IOException e){
+                        status = -1;
+                    }
+                    long now = System.nanoTime();
+                    (intended < measureFrom ? warmup : measured).get(scenario).record(now - intended, status);
+                }
+            });
+
+            due += (long) (-Math.log(1 - random.nextDouble()) * meanGapNanos);
+        }
+
+        pool.shutdown();
+        if( !pool.awaitTermination(TIMEOUT_MILLIS * 2, TimeUnit.MILLISECONDS) ){
+            System.out.println("Some requests were still waiting to be sent when the test ended");
+            pool.shutdownNow();
+        }
+        if(late.get() > 0){
+            System.out.println(late.get() + " requests were handed out over 100 ms late by the load generator itself,"
+                + " lower the rate or run it on another machine");
+        }
+        return measured;
+    }
+
+    /**
+     * Prints a table of the results and returns them as JSON.
+     */
+    static JSONObject report(Map<Scenario, Stats> stats, double rate, int durationSeconds, int users, int clients){
+        JSONObject result = new JSONObject().put("rate", rate).put("durationSeconds", durationSeconds)
+            .put("users", users).put("clients", clients);
+        JSONArray endpoints = new JSONArray();
+
+        System.out.printf("%n%-16s %9s %9s %7s %7s %9s %9s %9s %9s%n", "Endpoint", "Requests", "Req/s", "Errors",
+            "503", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms");
+        List<LatencyHistogram> all = new ArrayList<>();
+        long requests = 0, errors = 0, shed = 0;
+        for(Map.Entry<Scenario, Stats> entry : stats.entrySet()){
+            Stats s = entry.getValue();
+            endpoints.put( row(entry.getKey().path, s.latency, new LatencyHistogram[0], s.requests.sum(),
+                s.errors.sum(), s.shed.sum(), durationSeconds) );
+            all.add(s.latency);
+            requests += s.requests.sum();
+            errors += s.errors.sum();
+            shed += s.shed.sum();
+        }
+        LatencyHistogram first = all.remove(0);
+        result.put("total", row("total", first, all.toArray(new LatencyHistogram[0]), requests, errors, shed,
+            durationSeconds));
+        return result.put("endpoints", endpoints);
+    }
+
+    private static JSONObject row(String name, LatencyHistogram latency, LatencyHistogram[] others, long requests,
+            long errors, long shed, int durationSeconds){
+        JSONObject row = new JSONObject().put("endpoint", name).put("requests", requests)
+            .put("throughput", (double) requests / durationSeconds).put("errors", errors).put("shed", shed);
+        System.out.printf("%-16s %9d %9.1f %7d %7d", name, requests, (double) requests / durationSeconds, errors, shed);
+        for(int i = 0; i < QUANTILES.length; i++){
+            double millis = latency.getQuantile(QUANTILES[i], others) / 1e6;
+            row.put(QUANTILE_NAMES[i], millis);
+            System.out.printf(" %9.2f", millis);
+        }
+        System.out.println();
+        return row;
+    }
+
+    /**
+     * Creates the students the scenarios run as. Students that already exist from an earlier run are kept.
+     */
+    static void createStudents(final String baseUrl, int users) throws InterruptedException{
+        System.out.println("Creating " + users + " students");
+        tokens = new AtomicReferenceArray<>(users);
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        final LongAdder failed = new LongAdder();
+        for(int i = 0; i < users; i++){
+            final int student = i;
+            pool.execute(new Runnable(){
+                public void run(){
+                    try{
+                        String body = form("DisplayName", "Student " + student,
+                            "Username", "loadtest" + student, "Password", "pw" + student,
+                            "ContactInformation", "loadtest" + student + "@example.edu");
+                        //Passwords are hashed on a bounded pool, a 503 means it was full and is worth retrying
+                        int status = post(baseUrl + "/CreateNewUser", body, student);
+                        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+                        while( status == 503 && System.nanoTime() < deadline ){
+                            Thread.sleep(100);
+                            status = post(baseUrl + "/CreateNewUser", body, student);
+                        }
+                        if(status != 200){
+                            failed.increment();
+                        }
+                    }
+                    catch(IOException e){
+                        failed.increment();
+                    }
+                    catch(InterruptedException e){
+                        Thread.currentThread().interrupt();
+                        failed.increment();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+        if(failed.sum() > 0){
+            System.out.println(failed.sum() + " students could not be created");
+        }
+    }
+
+    static Map<Scenario, Integer> parseMix(String mix){
+        Map<Scenario, Integer> weights = new LinkedHashMap<>();
+        for(String part : mix.split(",")){
+            String[] pieces = part.trim().split(":");
+            int weight = pieces.length > 1 ? Integer.parseInt(pieces[1].trim()) : 1;
+            if(weight > 0){
+                weights.put(Scenario.valueOf(pieces[0].trim().toUpperCase()), weight);
+            }
+        }
+        if(weights.isEmpty()){
+            throw new IllegalArgumentException("The mix has no scenarios: " + mix);
+        }
+        return weights;
+    }
+
+    private static int get(String url) throws IOException{
+        HttpURLConnection connection = open(url);
+        return finish(connection);
+    }
+
+    /**
+     * Posts a form as the given student, keeping the session token the response hands out, if any.
+     */
+    private static int post(String url, String form, int student) throws IOException{
+        HttpURLConnection connection = open(url);
+        byte[] body = form.getBytes(StandardCharsets.UTF_8);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        OutputStream os = connection.getOutputStream();
+        os.write(body);
+        os.close();
+        int status = finish(connection);
+        String token = connection.getHeaderField("X-Session-Token");
+        if(token != null && student < tokens.length()){
+            tokens.set(student, token);
+        }
+        return status;
+    }
+
+    private static HttpURLConnection open(String url) throws IOException{
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        return connection;
+    }
+
+    /**
+     * Reads the whole response, so the connection goes back to the keep-alive pool, and returns its status.
+     */
+    private static int finish(HttpURLConnection connection) throws IOException{
+        int status = connection.getResponseCode();
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if(in != null){
+            byte[] buffer = new byte[8192];
+            while(in.read(buffer) >= 0){
+                //Discarded, only the timing matters
+            }
+            in.close();
+        }
+        return status;
+    }
+
+    private static String form(String... namesAndValues) throws UnsupportedEncodingException{
+        StringBuilder form = new StringBuilder();
+        for(int i = 0; i + 1 < namesAndValues.length; i += 2){
+            if(form.length() > 0){
+                form.append('&');
+            }
+            form.append(URLEncoder.encode(namesAndValues[i], "UTF-8")).append('=')
+                .append(URLEncoder.encode(namesAndValues[i + 1], "UTF-8"));
+        }
+        return form.toString();
+    }
+
+    private static String option(Map<String, String> options, String key, String defaultValue){
+        String value = options.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private static int freePort() throws IOException{
+        ServerSocket socket = new ServerSocket(0);
+        try{
+            return socket.getLocalPort();
+        }
+        finally{
+            socket.close();
+        }
+    }
+}
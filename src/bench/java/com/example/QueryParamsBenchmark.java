@@ -0,0 +1,79 @@
+package com.example;
+
+/**
+ * Webserver.queryToMap, which every request goes through, against the split based parser it replaced.
+ * @Date: 18-10-2026
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryParamsBenchmark {
+
+    @Param({ "short", "message", "encoded" })
+    public String query;
+
+    private String raw;
+
+    @Setup
+    public void setup(){
+        if( "short".equals(query) ){
+            raw = "Username=ann";
+        }
+        else if( "message".equals(query) ){
+            raw = "Username=student42&Message=See+you+at+the+dining+hall+at+6%21&Before=65f1c2a9e4b0a1b2c3d4e5f6";
+        }
+        else{
+            raw = "Username=student42&About+Me=Hi%2C+I%27m+a+first+year+studying+CS+%26+math.+I+like+hiking%2C+chess+and+coffee.";
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> queryToMap(){
+        return Webserver.queryToMap(raw);
+    }
+
+    @Benchmark
+    public Map<String, String> legacy(){
+        return legacyQueryToMap(raw);
+    }
+
+    /**
+     * Webserver.queryToMap as it was before QueryParams, kept for comparison.
+     */
+    static Map<String, String> legacyQueryToMap(String query){
+        if(query == null) {
+            return null;
+        }
+        Map<String, String> result = new HashMap<>();
+        for (String param : query.split("&")) {
+            String[] entry = param.split("=");
+            if (entry.length > 1) {
+                result.put(entry[0], entry[1]);
+            }else{
+                result.put(entry[0], "");
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example;
+
+/**
+ * UserList.accessUser, done by nearly every handler, with the registry already holding every user.
+ * @Date: 18-10-2026
+ */
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserListBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int users;
+
+    private UserList userList;
+    private String[] usernames;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        userList = new UserList(BenchData.storage(users), "full");
+        //Built up front so the benchmark doesn't measure the string concatenation
+        usernames = new String[users];
+        for(int i = 0; i < users; i++){
+            usernames[i] = BenchData.username(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        userList.getImagePipeline().shutdown();
+    }
+
+    @Benchmark
+    public User accessUser(){
+        return userList.accessUser( usernames[ThreadLocalRandom.current().nextInt(users)] );
+    }
+
+    @Benchmark
+    @Threads(4)
+    public User accessUserContended(){
+        return userList.accessUser( usernames[ThreadLocalRandom.current().nextInt(users)] );
+    }
+}
@@ -6,12 +6,7 @@ package com.example;
  * @Date: 4-3-2023
  */
 
-import com.mongodb.MongoClient;
-import com.mongodb.MongoClientURI;
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoDatabase;
 import org.bson.Document;
-import io.github.cdimascio.dotenv.Dotenv;
 import java.util.ArrayList;
 
 
@@ -68,25 +63,19 @@ public class Class {
     }
 
     /**
-     * Saves class information to a MongoDB database.
+     * Saves class information to the class catalogue.
+     *
+     * @param classes The repository of classes, e.g. storage.classes().
      */
-    public void saveClass() {
-        Dotenv dotenv = Dotenv.load();
-        String mongodbUrl = dotenv.get("MONGODB_URL");
-
-        try (MongoClient mongoClient = new MongoClient(new MongoClientURI(mongodbUrl))) {
-            MongoDatabase database = mongoClient.getDatabase("ClassDB");
-            MongoCollection<Document> collection = database.getCollection("Classes");
-
-            Document document = new Document("Class Title", name)
-                    .append("Professor(s)", professors)
-                    .append("Start Time", startTime)
-                    .append("End Time", endTime)
-                    .append("Start Date", startDate)
-                    .append("End Date", endDate)
-                    .append("Days", convertDaysToString());
-            collection.insertOne(document);
-        }
+    public void saveClass(ClassRepository classes) {
+        Document document = new Document("Class Title", name)
+                .append("Professor(s)", professors)
+                .append("Start Time", startTime)
+                .append("End Time", endTime)
+                .append("Start Date", startDate)
+                .append("End Date", endDate)
+                .append("Days", convertDaysToString());
+        classes.insert(document);
     }
 
     /**
@@ -0,0 +1,26 @@
+package com.example;
+
+/**
+ * The class catalogue, one document per class with its title, professors, times, dates and days.
+ * @Date: 18-10-2026
+ */
+
+import java.util.List;
+
+import org.bson.Document;
+
+
+public interface ClassRepository {
+
+    /**
+     * Stores a class.
+     * @param course The class document.
+     */
+    void insert(Document course);
+
+    /**
+     * Returns every class.
+     * @return The class documents.
+     */
+    List<Document> findAll();
+}
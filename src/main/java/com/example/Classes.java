@@ -9,8 +9,6 @@ package com.example;
  */
 
 
-import com.mongodb.MongoClient;
-import com.mongodb.client.MongoCollection;
 import org.bson.Document;
 
 /**
@@ -22,18 +20,17 @@ public class Classes implements Task {
     
     private String classSelected;
     private User user;
-    private GetDbCollection mongoDB = new GetDbCollection();
-    private MongoClient mongoClient;
+    private TaskRepository tasks; // Where completed tasks are recorded
 
     /**
-     * Constructs a Classes instance associated with a specific user and MongoDB client.
+     * Constructs a Classes instance associated with a specific user and task repository.
      * 
      * @param user The user associated with the class selection.
-     * @param mongoClient The MongoClient used for database interactions.
+     * @param tasks The repository completed tasks are recorded in.
      */
-    public Classes(User user, MongoClient mongoClient) {
+    public Classes(User user, TaskRepository tasks) {
         this.user = user;
-        this.mongoClient = mongoClient;
+        this.tasks = tasks;
     }
     
     /**
@@ -50,8 +47,16 @@ public class Classes implements Task {
      * This method facilitates the updating of the leaderboard based on the class selections made by users.
      */
     public void completeTask() {
-        MongoCollection<Document> classCollection = mongoDB.returnCollection("Tasks", "ClassSelection", mongoClient);
         Document document = new Document("Username", user.getUsername()).append("Display Name", user.getDisplayName());
-        classCollection.insertOne(document);
+        tasks.insert(getLeaderboardField(), document);
+    }
+
+    /**
+     * Returns the leaderboard field the class selection task counts towards.
+     * 
+     * @return "Class"
+     */
+    public String getLeaderboardField() {
+        return "Class";
     }
 }
@@ -0,0 +1,220 @@
+package com.example;
+
+/**
+ * Wraps an HttpExchange so the response is gzip (or deflate) compressed when the client accepts it and the body is
+ * big enough to be worth it. The handler writes to getResponseBody() as usual; the compression happens on the way to
+ * the socket, so neither copy of the body is ever held in full. Images are already compressed and event streams have
+ * to reach the client as soon as they're written, so those are always sent as they are. A compressed response is a
+ * different representation from the plain one, so a strong ETag gets the coding appended, e.g. "lb.x.1-gzip".
+ * @Date: 18-10-2026
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+
+public class CompressingExchange extends HttpExchange {
+
+    private final HttpExchange exchange;
+    private final String encoding;
+    private final int minBytes;
+    private final ResponseBody body = new ResponseBody();
+
+    /**
+     * Wraps the exchange if its client accepts a compressed response.
+     * @param exchange The exchange to wrap.
+     * @param minBytes Responses with a known length below this are sent uncompressed.
+     * @return The wrapped exchange, or the exchange itself if the client only takes uncompressed responses.
+     */
+    public static HttpExchange wrap(HttpExchange exchange, int minBytes){
+        String encoding = negotiate( exchange.getRequestHeaders().getFirst("Accept-Encoding") );
+        return encoding == null ? exchange : new CompressingExchange(exchange, encoding, minBytes);
+    }
+
+    private CompressingExchange(HttpExchange exchange, String encoding, int minBytes){
+        this.exchange = exchange;
+        this.encoding = encoding;
+        this.minBytes = minBytes;
+    }
+
+    /**
+     * Picks the encoding to answer with from an Accept-Encoding header, gzip if it's accepted, otherwise deflate.
+     * @param acceptEncoding The header's value, may be null.
+     * @return "gzip", "deflate", or null if neither is accepted.
+     */
+    static String negotiate(String acceptEncoding){
+        if(acceptEncoding == null){
+            return null;
+        }
+        boolean gzip = false, deflate = false;
+        for(String part : acceptEncoding.split(",")){
+            String[] pieces = part.split(";");
+            String coding = pieces[0].trim().toLowerCase();
+            boolean refused = false;
+            for(int i = 1; i < pieces.length; i++){
+                String param = pieces[i].trim();
+                if( param.startsWith("q=") ){
+                    try{
+                        refused = Double.parseDouble(param.substring(2).trim()) <= 0;
+                    }
+                    catch(NumberFormatException e){
+                        refused = true;
+                    }
+                }
+            }
+            if(refused){
+                continue;
+            }
+            if( coding.equals("gzip") || coding.equals("x-gzip") || coding.equals("*") ){
+                gzip = true;
+            }
+            else if( coding.equals("deflate") ){
+                deflate = true;
+            }
+        }
+        return gzip ? "gzip" : deflate ? "deflate" : null;
+    }
+
+    /**
+     * Sends the headers, switching to a compressed, chunked body if the response qualifies.
+     * @param code The status code.
+     * @param length The body length, 0 for unknown or -1 for no body.
+     * @throws IOException If the headers can't be sent.
+     */
+    public void sendResponseHeaders(int code, long length) throws IOException{
+        if( !shouldCompress(code, length) ){
+            exchange.sendResponseHeaders(code, length);
+            body.target = exchange.getResponseBody();
+            return;
+        }
+
+        Headers headers = exchange.getResponseHeaders();
+        String etag = headers.getFirst("ETag");
+        if(etag != null){
+            headers.set("ETag", codedETag(etag, encoding));
+        }
+        headers.set("Content-Encoding", encoding);
+        headers.add("Vary", "Accept-Encoding");
+        exchange.sendResponseHeaders(code, 0);
+        OutputStream raw = exchange.getResponseBody();
+        body.target = "gzip".equals(encoding) ? new GZIPOutputStream(raw, 8192) : new DeflaterOutputStream(raw);
+    }
+
+    /**
+     * Returns the ETag of a response compressed with a coding, the strong tag with "-coding" appended inside its
+     * quotes. Weak tags are left as they are, they already allow for a different encoding.
+     * @param etag The uncompressed response's quoted ETag.
+     * @param coding "gzip" or "deflate".
+     * @return The compressed response's ETag.
+     */
+    static String codedETag(String etag, String coding){
+        if( etag.length() < 2 || !etag.startsWith("\"") || !etag.endsWith("\"") ){
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "-" + coding + "\"";
+    }
+
+    /**
+     * Returns whether a tag from If-None-Match names a response with the given ETag, either as it is or compressed.
+     * @param tag The tag the client sent.
+     * @param etag The current uncompressed response's quoted ETag.
+     * @return True if the client's copy is current.
+     */
+    static boolean matchesETag(String tag, String etag){
+        return tag.equals(etag) || tag.equals( codedETag(etag, "gzip") ) || tag.equals( codedETag(etag, "deflate") );
+    }
+
+    private boolean shouldCompress(int code, long length){
+        if( length < 0 || code == 204 || code == 304 || (length > 0 && length < minBytes) ){
+            return false;
+        }
+        if( "HEAD".equals(exchange.getRequestMethod()) || exchange.getResponseHeaders().containsKey("Content-Encoding") ){
+            return false;
+        }
+        String type = exchange.getResponseHeaders().getFirst("Content-Type");
+        if(type == null){
+            return true;    //The older handlers send plain text without saying so
+        }
+        type = type.toLowerCase();
+        return !( type.startsWith("image/") || type.startsWith("text/event-stream") || type.startsWith("video/")
+            || type.startsWith("audio/") || type.contains("zip") );
+    }
+
+    public OutputStream getResponseBody(){
+        return body;
+    }
+
+    public void close(){
+        try{
+            body.close();
+        }
+        catch(IOException e){
+            //The client went away, closing the exchange below cleans up
+        }
+        exchange.close();
+    }
+
+    public Headers getRequestHeaders(){ return exchange.getRequestHeaders(); }
+    public Headers getResponseHeaders(){ return exchange.getResponseHeaders(); }
+    public URI getRequestURI(){ return exchange.getRequestURI(); }
+    public String getRequestMethod(){ return exchange.getRequestMethod(); }
+    public HttpContext getHttpContext(){ return exchange.getHttpContext(); }
+    public InputStream getRequestBody(){ return exchange.getRequestBody(); }
+    public InetSocketAddress getRemoteAddress(){ return exchange.getRemoteAddress(); }
+    public int getResponseCode(){ return exchange.getResponseCode(); }
+    public InetSocketAddress getLocalAddress(){ return exchange.getLocalAddress(); }
+    public String getProtocol(){ return exchange.getProtocol(); }
+    public Object getAttribute(String name){ return exchange.getAttribute(name); }
+    public void setAttribute(String name, Object value){ exchange.setAttribute(name, value); }
+    public void setStreams(InputStream in, OutputStream out){ exchange.setStreams(in, out); }
+    public HttpPrincipal getPrincipal(){ return exchange.getPrincipal(); }
+
+    /**
+     * The stream handed to the handler. Handlers call getResponseBody() more than once, so it's always this same
+     * stream, writing to whichever body sendResponseHeaders chose.
+     */
+    private class ResponseBody extends OutputStream {
+
+        OutputStream target;
+        private boolean closed = false;
+
+        private OutputStream target() throws IOException{
+            if(target == null){
+                throw new IOException("Response headers haven't been sent");
+            }
+            return target;
+        }
+
+        public void write(int b) throws IOException{
+            target().write(b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException{
+            target().write(b, off, len);
+        }
+
+        public void flush() throws IOException{
+            target().flush();
+        }
+
+        public void close() throws IOException{
+            if(closed){
+                return;
+            }
+            closed = true;
+            if(target != null){
+                target.close(); //Finishes the compressed stream and frees its native deflater
+            }
+        }
+    }
+}
@@ -8,8 +8,6 @@ package com.example;
  * @Date: 4-3-2023
  */
 
-import com.mongodb.MongoClient;
-import com.mongodb.client.MongoCollection;
 import org.bson.Document;
 
  
@@ -22,18 +20,17 @@ import org.bson.Document;
 public class Dorm implements Task {
 
     private User user; // The user making the dorm selection
-    private GetDbCollection mongoDB = new GetDbCollection(); // Utility for accessing MongoDB collections
-    private MongoClient mongoClient; // MongoDB client for database operations
+    private TaskRepository tasks; // Where completed tasks are recorded
 
     /**
-     * Constructs a Dorm instance associated with a specific user and MongoDB client.
+     * Constructs a Dorm instance associated with a specific user and task repository.
      * 
      * @param user The user associated with the dorm selection.
-     * @param mongoClient The MongoClient used for database interactions.
+     * @param tasks The repository completed tasks are recorded in.
      */
-    public Dorm(User user, MongoClient mongoClient) {
+    public Dorm(User user, TaskRepository tasks) {
         this.user = user;
-        this.mongoClient = mongoClient;
+        this.tasks = tasks;
     }
 
     /**
@@ -51,9 +48,17 @@ public class Dorm implements Task {
      * such as leaderboard updates or dormitory assignments.
      */
     public void completeTask() {
-        MongoCollection<Document> dormCollection = mongoDB.returnCollection("Tasks", "DormSelection", mongoClient);
         Document document = new Document("Username", user.getUsername())
                 .append("Display Name", user.getDisplayName());
-        dormCollection.insertOne(document);
+        tasks.insert(getLeaderboardField(), document);
+    }
+
+    /**
+     * Returns the leaderboard field the dormitory selection task counts towards.
+     * 
+     * @return "Dorm"
+     */
+    public String getLeaderboardField() {
+        return "Dorm";
     }
 }
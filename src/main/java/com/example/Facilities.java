@@ -8,8 +8,6 @@ package com.example;
  */
 
 
-import com.mongodb.MongoClient;
-import com.mongodb.client.MongoCollection;
 import org.bson.Document;
 
 /**
@@ -20,19 +18,18 @@ import org.bson.Document;
 public class Facilities implements Task {
 
     private User user; // The user making the facility selection
-    private GetDbCollection mongoDB = new GetDbCollection(); // Utility for accessing MongoDB collections
-    private MongoClient mongoClient; // MongoDB client for database operations
+    private TaskRepository tasks; // Where completed tasks are recorded
 
     /**
      * Constructs a Facilities instance for a given user and database client, initializing the class with
      * the necessary context for interacting with the database based on the user's actions.
      * 
      * @param user The user associated with this instance, whose facility preferences are being managed.
-     * @param mongoClient The MongoClient used to interact with the database.
+     * @param tasks The repository completed tasks are recorded in.
      */
-    public Facilities(User user, MongoClient mongoClient) {
+    public Facilities(User user, TaskRepository tasks) {
         this.user = user;
-        this.mongoClient = mongoClient;
+        this.tasks = tasks;
     }
 
     /**
@@ -51,9 +48,17 @@ public class Facilities implements Task {
      * user's facility preferences.
      */
     public void completeTask() {
-        MongoCollection<Document> facilitiesCollection = mongoDB.returnCollection("Tasks", "FacilitiesSelection", mongoClient);
         Document document = new Document("Username", user.getUsername())
                 .append("Display Name", user.getDisplayName());
-        facilitiesCollection.insertOne(document);
+        tasks.insert(getLeaderboardField(), document);
+    }
+
+    /**
+     * Returns the leaderboard field the facilities selection task counts towards.
+     * 
+     * @return "Facilities"
+     */
+    public String getLeaderboardField() {
+        return "Facilities";
     }
 }
@@ -9,8 +9,6 @@ package com.example;
 
 
 
-import com.mongodb.MongoClient;
-import com.mongodb.client.MongoCollection;
 import org.bson.Document;
  
 import java.util.ArrayList;
@@ -24,18 +22,17 @@ public class Faculty implements Task {
 
     private ArrayList<String> facultyNames; // Stores the names of selected faculty members
     private User user; // The user making the selection
-    private GetDbCollection mongoDB = new GetDbCollection(); // Utility for accessing MongoDB collections
-    private MongoClient mongoClient; // MongoDB client for database operations
+    private TaskRepository tasks; // Where completed tasks are recorded
 
     /**
-     * Initializes a new instance of the Faculty class for a given user.
+     * Initializes a new instance of the Faculty class for a given user and task repository.
      * 
      * @param user The user associated with faculty selections.
+     * @param tasks The repository completed tasks are recorded in.
      */
-    public Faculty(User user) {
+    public Faculty(User user, TaskRepository tasks) {
         this.user = user;
-        // Note: The original constructor does not assign mongoClient passed as a parameter.
-        // If mongoClient is intended to be passed, the constructor signature and assignment should be updated accordingly.
+        this.tasks = tasks;
     }
 
     /**
@@ -54,9 +51,16 @@ public class Faculty implements Task {
      * on the stored faculty selections.
      */
     public void completeTask() {
-        // Note: Variable name corrected from dormCollection to facultyCollection for clarity.
-        MongoCollection<Document> facultyCollection = mongoDB.returnCollection("Tasks", "FacultySelection", mongoClient);
         Document document = new Document("Username", user.getUsername()).append("Display Name", user.getDisplayName());
-        facultyCollection.insertOne(document);
+        tasks.insert(getLeaderboardField(), document);
+    }
+
+    /**
+     * Returns the leaderboard field the faculty selection task counts towards.
+     * 
+     * @return "Faculty"
+     */
+    public String getLeaderboardField() {
+        return "Faculty";
     }
 }
@@ -0,0 +1,311 @@
+package com.example;
+
+/**
+ * Pushes new forum messages to every connected browser as Server-Sent Events, so clients don't have to keep polling
+ * the whole message list. Each message is serialized once and handed to every subscriber's own bounded buffer, a
+ * small pool of writer threads drains those buffers to the sockets. A client that falls so far behind that its buffer
+ * fills up, or whose socket stops taking data for the write timeout, is disconnected instead of letting its backlog
+ * grow; it can catch up with /ForumMessages?After= when it reconnects.
+ * @Date: 18-10-2026
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.sun.net.httpserver.HttpExchange;
+
+
+public class ForumBroadcaster {
+
+    private static final byte[] KEEPALIVE = ": keepalive\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RETRY = "retry: 3000\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService writers;
+    private final ScheduledExecutorService keepalive;
+    private final int bufferSize;
+    private final int maxSubscribers;
+    private final long writeTimeoutNanos;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    /**
+     * Creates a broadcaster using the FORUM_STREAM_MAX, FORUM_STREAM_BUFFER, FORUM_STREAM_WRITERS and
+     * FORUM_STREAM_WRITE_TIMEOUT_MS settings.
+     */
+    public ForumBroadcaster(){
+        this( ServerConfig.getInt("FORUM_STREAM_MAX", 1000), ServerConfig.getInt("FORUM_STREAM_BUFFER", 64),
+            ServerConfig.getInt("FORUM_STREAM_WRITERS", 4), ServerConfig.getInt("FORUM_STREAM_WRITE_TIMEOUT_MS", 10000) );
+    }
+
+    /**
+     * Creates a broadcaster.
+     * @param maxSubscribers How many clients can be connected at once.
+     * @param bufferSize How many unsent events a client can have before it's disconnected.
+     * @param writerThreads How many threads write events to the clients.
+     * @param writeTimeoutMillis How long an event may wait or a write may block before the client is disconnected.
+     */
+    public ForumBroadcaster(int maxSubscribers, int bufferSize, int writerThreads, int writeTimeoutMillis){
+        this.maxSubscribers = maxSubscribers;
+        this.bufferSize = bufferSize;
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, writeTimeoutMillis));
+        this.writers = Executors.newFixedThreadPool(writerThreads, RequestExecutor.namedThreads("forum-stream-"));
+        //Comments keep proxies from closing idle streams and let us notice clients that went away
+        this.keepalive = Executors.newSingleThreadScheduledExecutor(RequestExecutor.namedThreads("forum-keepalive-"));
+        this.keepalive.scheduleAtFixedRate(new Runnable(){
+            public void run(){
+                for(Subscriber subscriber : subscribers){
+                    subscriber.offer(KEEPALIVE);
+                }
+            }
+        }, 15, 15, TimeUnit.SECONDS);
+        //A client that stops reading blocks its writer's socket write, which would otherwise stall the others for good
+        this.keepalive.scheduleAtFixedRate(new Runnable(){
+            public void run(){
+                long now = System.nanoTime();
+                for(Subscriber subscriber : subscribers){
+                    subscriber.checkWrite(now);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts an event stream on the exchange. The exchange stays open after the handler returns, events are written
+     * to it by the writer threads until the client disconnects or is evicted.
+     * @param exchange The request to turn into an event stream.
+     * @return False if there are already too many clients connected, nothing has been sent in that case.
+     * @throws IOException If the response headers can't be sent.
+     */
+    public boolean subscribe(HttpExchange exchange) throws IOException{
+        if( subscribers.size() >= maxSubscribers ){
+            return false;
+        }
+
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+
+        Subscriber subscriber = new Subscriber(exchange);
+        subscribers.add(subscriber);
+        subscriber.offer(RETRY);
+        return true;
+    }
+
+    /**
+     * Sends a newly posted message to every connected client.
+     * @param message The stored message document.
+     */
+    public void publish(Document message){
+        if( subscribers.isEmpty() ){
+            return;
+        }
+
+        //Serialized once no matter how many clients get it
+        String json = Forums.toJson(message).toString();
+        ObjectId id = message.getObjectId("_id");
+        String frame = (id == null ? "" : "id: " + id.toHexString() + "\n")
+            + "event: message\ndata: " + json + "\n\n";
+        byte[] bytes = frame.getBytes(StandardCharsets.UTF_8);
+
+        published.incrementAndGet();
+        for(Subscriber subscriber : subscribers){
+            subscriber.offer(bytes);
+        }
+    }
+
+    /**
+     * Returns how many clients are connected.
+     * @return The number of subscribers.
+     */
+    public int getSubscriberCount(){
+        return subscribers.size();
+    }
+
+    /**
+     * Returns how many messages have been pushed to clients.
+     * @return The number of published messages.
+     */
+    public long getPublishedCount(){
+        return published.get();
+    }
+
+    /**
+     * Returns how many clients were disconnected for falling behind.
+     * @return The number of evicted subscribers.
+     */
+    public long getEvictedCount(){
+        return evicted.get();
+    }
+
+    /**
+     * Disconnects every client and stops the writer threads.
+     */
+    public void shutdown(){
+        keepalive.shutdownNow();
+        for(Subscriber subscriber : subscribers){
+            subscriber.close();
+        }
+        writers.shutdown();
+    }
+
+    /**
+     * One connected client. Events wait in its buffer until a writer thread drains it, only one writer works on a
+     * client at a time so events are written in order. The stream is only ever written and closed by that writer:
+     * publishers, the keepalive and the watchdog just mark a client closed and schedule it, so a post never waits on
+     * a client's socket.
+     */
+    private class Subscriber implements Runnable {
+
+        private final HttpExchange exchange;
+        private final OutputStream out;
+        private final ArrayBlockingQueue<Frame> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private volatile boolean closed = false;
+        private boolean exchangeClosed = false;     //Only touched by the writer
+        private Thread writingThread = null;        //Set while a write is in progress, guarded by this
+        private long writeStartNanos = 0;
+
+        Subscriber(HttpExchange exchange){
+            this.exchange = exchange;
+            this.out = exchange.getResponseBody();
+        }
+
+        void offer(byte[] bytes){
+            if(closed){
+                return;
+            }
+            if( !buffer.offer(new Frame(bytes)) ){
+                //Too far behind, drop it rather than hold an ever growing backlog
+                evict();
+                return;
+            }
+            schedule();
+        }
+
+        private void schedule(){
+            if( scheduled.compareAndSet(false, true) ){
+                writers.execute(this);
+            }
+        }
+
+        public void run(){
+            try{
+                Frame frame;
+                while( !closed && (frame = buffer.poll()) != null ){
+                    if( System.nanoTime() - frame.queuedNanos > writeTimeoutNanos ){
+                        //Every frame behind this one has waited about as long, the client can't keep up
+                        evict();
+                        break;
+                    }
+                    write(frame.bytes);
+                }
+                if(!closed){
+                    write(null);
+                }
+            }
+            catch(IOException e){
+                close();
+            }
+            finally{
+                if(closed && !exchangeClosed){
+                    exchangeClosed = true;
+                    buffer.clear();
+                    try{
+                        exchange.close();
+                    }
+                    catch(RuntimeException e){
+                        //The connection is already gone
+                    }
+                }
+                //The watchdog may have interrupted a write that finished anyway, don't leave that to the next client
+                Thread.interrupted();
+                scheduled.set(false);
+            }
+            //Something may have been offered, or the client closed, after the last poll but before scheduled was cleared
+            if( (!closed && !buffer.isEmpty()) || (closed && !exchangeClosed) ){
+                schedule();
+            }
+        }
+
+        /**
+         * Writes a frame, or flushes with null, letting the watchdog interrupt it if the socket stops taking data.
+         */
+        private void write(byte[] bytes) throws IOException{
+            synchronized(this){
+                writingThread = Thread.currentThread();
+                writeStartNanos = System.nanoTime();
+            }
+            try{
+                if(bytes == null){
+                    out.flush();
+                }
+                else{
+                    out.write(bytes);
+                }
+            }
+            finally{
+                synchronized(this){
+                    writingThread = null;
+                }
+            }
+        }
+
+        /**
+         * Called by the watchdog. A write that has been blocked too long is interrupted, which closes the connection
+         * and frees the writer thread for the other clients.
+         */
+        synchronized void checkWrite(long now){
+            if( writingThread != null && now - writeStartNanos > writeTimeoutNanos ){
+                evict();
+                writingThread.interrupt();
+                writingThread = null;
+            }
+        }
+
+        private void evict(){
+            if(!closed){
+                evicted.incrementAndGet();
+                close();
+            }
+        }
+
+        /**
+         * Marks the client as disconnected, its writer closes the exchange.
+         */
+        void close(){
+            if(closed){
+                return;
+            }
+            closed = true;
+            subscribers.remove(this);
+            schedule();
+        }
+    }
+
+    /**
+     * An event waiting to be written, with when it was queued.
+     */
+    private static class Frame {
+
+        final byte[] bytes;
+        final long queuedNanos = System.nanoTime();
+
+        Frame(byte[] bytes){
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example;
+
+/**
+ * The forum's messages, ordered by their ObjectId, which sorts in the order they were posted.
+ * @Date: 18-10-2026
+ */
+
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+
+public interface ForumRepository {
+
+    /**
+     * Stores a message.
+     * @param message The message document, with its _id already set.
+     */
+    void insert(Document message);
+
+    /**
+     * Stores several messages in one write. Each message is tried even if another one fails.
+     * @param messages The message documents, with their _ids already set.
+     * @throws com.mongodb.MongoBulkWriteException If some messages weren't stored, its write errors name them by index.
+     */
+    void insertMany(List<Document> messages);
+
+    /**
+     * Returns one page of messages, newest first. With no cursor it's the newest messages, "before" pages back to
+     * older messages and "after" returns the messages posted since, both exclusive.
+     * @param before The id of the oldest message already shown, or null.
+     * @param after The id of the newest message already shown, or null.
+     * @param limit The most messages to return.
+     * @return The messages, newest first, with "Display Name", "Message", "Time" and "Timestamp".
+     */
+    List<Document> findPage(ObjectId before, ObjectId after, int limit);
+
+    /**
+     * Returns every message.
+     * @return The messages, oldest first.
+     */
+    List<Document> findAll();
+}
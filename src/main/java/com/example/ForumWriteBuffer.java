@@ -0,0 +1,317 @@
+package com.example;
+
+/**
+ * Group commit for forum posts. Instead of every post doing its own insertOne on the request thread, posts are queued
+ * and a single flusher thread writes whatever has piled up with one insertMany, waiting a few milliseconds for more
+ * posts when a batch isn't full yet. A post is only acknowledged once the batch holding it has been written, so
+ * batching never loses an acknowledged message, it just shares the round trip during bursts. The batch is written
+ * unordered, so a post that fails doesn't stop the rest of its batch: every post is answered and broadcast by its
+ * own outcome. A poster who gives up
+ * waiting gets an UnconfirmedException instead, since the post is still queued and may well be written after all.
+ * @Date: 18-10-2026
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+
+
+public class ForumWriteBuffer {
+
+    /**
+     * Thrown when a post was queued but its write wasn't confirmed in time. It may still be written and broadcast,
+     * so the poster mustn't treat it as failed; ForumPost answers it with a 202 carrying the message's id.
+     */
+    public static class UnconfirmedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Document post;
+
+        public UnconfirmedException(String message, Document post, Throwable cause){
+            super(message, cause);
+            this.post = post;
+        }
+
+        /**
+         * Returns the queued message, with the _id it has if it's written.
+         * @return The message document.
+         */
+        public Document getPost(){
+            return post;
+        }
+    }
+
+    /**
+     * A queued post and the future its poster is waiting on.
+     */
+    private static class Pending {
+
+        final Document message;
+        final CompletableFuture<Document> written = new CompletableFuture<>();
+
+        Pending(Document message){
+            this.message = message;
+        }
+    }
+
+    private final ForumRepository repository;
+    private final ForumBroadcaster broadcaster;
+    private final BlockingQueue<Pending> queue;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final Thread flusher;
+    private volatile boolean running = true;
+    private final Object flushingLock = new Object();
+    private boolean flushing = false;   //Under flushingLock, shutdown() only interrupts the flusher while it waits
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong largestBatch = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private final AtomicLong lastFlushNanos = new AtomicLong();
+
+    /**
+     * Creates the buffer and starts its flusher thread.
+     * @param repository The repository posts are written to.
+     * @param broadcaster Told about each message once it has been written.
+     * @param maxBatchSize The most posts written by one insertMany.
+     * @param lingerMillis How long to wait for more posts before writing a batch that isn't full.
+     * @param capacity How many posts can wait to be written before new posts are turned away.
+     */
+    public ForumWriteBuffer(ForumRepository repository, ForumBroadcaster broadcaster, int maxBatchSize,
+            int lingerMillis, int capacity){
+        this.repository = repository;
+        this.broadcaster = broadcaster;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lingerMillis));
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.flusher = RequestExecutor.namedThreads("forum-writer-").newThread(new Runnable(){
+            public void run(){
+                flushLoop();
+            }
+        });
+        this.flusher.start();
+    }
+
+    /**
+     * Queues a post and waits until the batch holding it has been written.
+     * @param message The message document, with its _id already set.
+     * @return The written message.
+     * @throws IllegalStateException If the buffer is full or shut down, the post wasn't queued.
+     * @throws UnconfirmedException If the post was queued but its write didn't finish in time.
+     * @throws MongoException If the batch couldn't be written.
+     */
+    public Document submit(Document message){
+        Pending pending = new Pending(message);
+        try{
+            if( !running || !queue.offer(pending, 1, TimeUnit.SECONDS) ){
+                throw new IllegalStateException("Forum write buffer is full");
+            }
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while posting to the forum", e);
+        }
+
+        try{
+            return pending.written.get(30, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new UnconfirmedException("Interrupted while waiting for the forum write", message, e);
+        }
+        catch(TimeoutException e){
+            throw new UnconfirmedException("Forum write took too long", message, e);
+        }
+        catch(ExecutionException e){
+            Throwable cause = e.getCause();
+            throw cause instanceof MongoException ? (MongoException) cause : new MongoException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Stops accepting posts, writes everything still queued and stops the flusher thread.
+     */
+    public void shutdown(){
+        running = false;
+        synchronized(flushingLock){
+            if( !flushing ){
+                flusher.interrupt();
+            }
+        }
+        try{
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns how many posts are waiting to be written.
+     * @return The queue depth.
+     */
+    public int getQueueDepth(){
+        return queue.size();
+    }
+
+    /**
+     * Returns how many insertMany batches have been written.
+     * @return The number of batches.
+     */
+    public long getBatchCount(){
+        return batches.get();
+    }
+
+    /**
+     * Returns how many posts have been written.
+     * @return The number of messages.
+     */
+    public long getMessageCount(){
+        return messages.get();
+    }
+
+    /**
+     * Returns the average number of posts per batch.
+     * @return The average batch size, 0 before the first batch.
+     */
+    public double getAverageBatchSize(){
+        long count = batches.get();
+        return count == 0 ? 0 : (double) messages.get() / count;
+    }
+
+    /**
+     * Returns the most posts written in one batch.
+     * @return The largest batch size.
+     */
+    public long getLargestBatchSize(){
+        return largestBatch.get();
+    }
+
+    /**
+     * Returns how long the last insertMany took, in milliseconds.
+     * @return The last flush latency.
+     */
+    public double getLastFlushMillis(){
+        return lastFlushNanos.get() / 1e6;
+    }
+
+    /**
+     * Returns how long an insertMany takes on average, in milliseconds.
+     * @return The average flush latency.
+     */
+    public double getAverageFlushMillis(){
+        long count = batches.get();
+        return count == 0 ? 0 : totalFlushNanos.get() / 1e6 / count;
+    }
+
+    private void flushLoop(){
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+
+        while( running || !queue.isEmpty() ){
+            try{
+                Pending first = running ? queue.poll(1, TimeUnit.SECONDS) : queue.poll();
+                if(first == null){
+                    continue;
+                }
+                batch.add(first);
+
+                //Give a burst a moment to fill the batch, whatever arrives during the write goes in the next one
+                long deadline = System.nanoTime() + lingerNanos;
+                while( running && batch.size() < maxBatchSize ){
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if(next == null){
+                        break;
+                    }
+                    batch.add(next);
+                }
+            }
+            catch(InterruptedException e){
+                //shutdown() interrupts to stop waiting, the loop then drains what's left
+            }
+            queue.drainTo(batch, maxBatchSize - batch.size());
+
+            if( !batch.isEmpty() ){
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch){
+        List<Document> documents = new ArrayList<>(batch.size());
+        for(Pending pending : batch){
+            documents.add(pending.message);
+        }
+
+        //An interrupt from shutdown() that came after the wait mustn't cut the write short
+        synchronized(flushingLock){
+            flushing = true;
+            Thread.interrupted();
+        }
+        MongoException[] failures = new MongoException[batch.size()];
+        long start = System.nanoTime();
+        try{
+            repository.insertMany(documents);
+        }
+        catch(MongoBulkWriteException e){
+            //The batch is unordered, so everything without an error of its own was written
+            for(BulkWriteError error : e.getWriteErrors()){
+                failures[error.getIndex()] = new MongoException(error.getCode(), error.getMessage());
+            }
+            if(e.getWriteConcernError() != null){
+                for(int i = 0; i < failures.length; i++){
+                    if(failures[i] == null){
+                        failures[i] = e;
+                    }
+                }
+            }
+        }
+        catch(RuntimeException e){
+            for(Pending pending : batch){
+                pending.written.completeExceptionally(e);
+            }
+            return;
+        }
+        finally{
+            synchronized(flushingLock){
+                flushing = false;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int written = 0;
+        for(int i = 0; i < batch.size(); i++){
+            Pending pending = batch.get(i);
+            if(failures[i] != null){
+                pending.written.completeExceptionally(failures[i]);
+                continue;
+            }
+            written++;
+            pending.written.complete(pending.message);
+            broadcaster.publish(pending.message);
+        }
+
+        batches.incrementAndGet();
+        messages.addAndGet(written);
+        totalFlushNanos.addAndGet(elapsed);
+        lastFlushNanos.set(elapsed);
+        if( batch.size() > largestBatch.get() ){
+            largestBatch.set(batch.size()); //Only the flusher thread writes this
+        }
+    }
+}
@@ -3,19 +3,22 @@ package com.example;
 /**
  * Manages forum interactions, including message posting and retrieval within an application.
  * Utilizes MongoDB for persisting forum messages and their metadata.
+ * Messages are paged newest first by their ObjectId, which sorts in the order the messages were posted.
  *
  * @Date: 8-3-2023
  */
 
 
 
-import com.mongodb.MongoClient;
-import com.mongodb.client.MongoCollection;
 import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.json.JSONObject;
  
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Date; 
+import java.util.List;
 
 /**
  * The Forums class is responsible for handling user interactions within forum threads,
@@ -23,17 +26,31 @@ import java.util.Date;
  */
 public class Forums {
 
+    public static final int MAX_PAGE_SIZE = 100; // Most messages returned by one getPage call
+
+    // Thread safe, unlike SimpleDateFormat, so one is shared by every post
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("MMM dd, yyyy HH:mm")
+            .withZone(ZoneId.systemDefault());
+
     private ArrayList<User> userList; // List of users participating in the forums
-    private GetDbCollection mongoDB = new GetDbCollection(); // Utility for accessing MongoDB collections
-    private MongoClient mongoClient; // MongoDB client for database operations
+    private ForumRepository messages; // Where messages are stored
+    private ForumBroadcaster broadcaster = new ForumBroadcaster(); // Pushes new messages to connected clients
+    private ForumWriteBuffer writeBuffer = null; // Batches posts into insertMany calls, null when posts are written one by one
 
     /**
-     * Constructs a Forums instance with a specific MongoDB client.
+     * Constructs a Forums instance storing its messages in the given repository. Setting FORUM_WRITE_BEHIND to true
+     * batches posts (see ForumWriteBuffer), FORUM_BATCH_SIZE, FORUM_BATCH_LINGER_MS and FORUM_BUFFER_CAPACITY tune
+     * the batches.
      * 
-     * @param mongoClient The MongoClient used for database interactions.
+     * @param messages The repository messages are stored in.
      */
-    public Forums(MongoClient mongoClient) {
-        this.mongoClient = mongoClient;
+    public Forums(ForumRepository messages) {
+        this.messages = messages;
+        if (ServerConfig.getBoolean("FORUM_WRITE_BEHIND", false)) {
+            this.writeBuffer = new ForumWriteBuffer(messages, broadcaster,
+                    ServerConfig.getInt("FORUM_BATCH_SIZE", 100), ServerConfig.getInt("FORUM_BATCH_LINGER_MS", 5),
+                    ServerConfig.getInt("FORUM_BUFFER_CAPACITY", 10000));
+        }
     }
 
     /**
@@ -47,22 +64,105 @@ public class Forums {
 
     /**
      * Adds a new message to the forum with the specified message content and display name of the user.
-     * The message is timestamped and stored in the MongoDB database.
+     * The message is timestamped and stored in the MongoDB database, either right away or with the next batch when
+     * write-behind is on. A returned message has been stored; with write-behind the wait for the batch is bounded,
+     * and a message still unwritten by then is reported with an UnconfirmedException, as it may be stored later.
      * 
      * @param message The message content to be added.
      * @param displayName The display name of the user posting the message.
+     * @return The stored message document, including its _id.
+     * @throws ForumWriteBuffer.UnconfirmedException If the message was queued but its write wasn't confirmed in time.
+     * @throws IllegalStateException If the write buffer is full and the message wasn't queued.
      */
-    public void addMessage(String message, String displayName) {
-        MongoCollection<Document> collection = mongoDB.returnCollection("Forum", "Messages", mongoClient);
-
+    public Document addMessage(String message, String displayName) {
         long currentTimeMillis = System.currentTimeMillis();
-        SimpleDateFormat sdf = new SimpleDateFormat("MMM dd, yyyy HH:mm");
-        Date resultdate = new Date(currentTimeMillis);
 
-        Document document = new Document("Display Name", displayName)
+        // The id is assigned here so messages keep the order they were posted in even when written in batches
+        Document document = new Document("_id", new ObjectId())
+                .append("Display Name", displayName)
                 .append("Message", message)
-                .append("Time", sdf.format(resultdate));
-        collection.insertOne(document);
+                .append("Time", TIME_FORMAT.format(Instant.ofEpochMilli(currentTimeMillis)))
+                .append("Timestamp", currentTimeMillis);
+
+        if (writeBuffer != null) {
+            return writeBuffer.submit(document);
+        }
+
+        messages.insert(document);
+        broadcaster.publish(document);
+        return document;
+    }
+
+    /**
+     * Returns the write buffer batching posts.
+     * 
+     * @return The ForumWriteBuffer, or null if write-behind is off.
+     */
+    public ForumWriteBuffer getWriteBuffer() {
+        return writeBuffer;
+    }
+
+    /**
+     * Writes any posts still waiting in the write buffer and disconnects streaming clients.
+     */
+    public void shutdown() {
+        if (writeBuffer != null) {
+            writeBuffer.shutdown();
+        }
+        broadcaster.shutdown();
+    }
+
+    /**
+     * Returns the broadcaster that streams new messages to connected clients.
+     * 
+     * @return The ForumBroadcaster for this forum.
+     */
+    public ForumBroadcaster getBroadcaster() {
+        return broadcaster;
+    }
+
+    /**
+     * Returns one page of messages, newest first. With no cursor it's the newest messages, "before" pages back to
+     * older messages and "after" returns the messages posted since, both exclusive.
+     * 
+     * @param before The id of the oldest message already shown, or null.
+     * @param after The id of the newest message already shown, or null.
+     * @param limit The most messages to return, capped at MAX_PAGE_SIZE.
+     * @return The messages, newest first.
+     * @throws IllegalArgumentException If a cursor isn't a valid message id.
+     */
+    public List<Document> getPage(String before, String after, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        return messages.findPage(before == null ? null : toObjectId(before), after == null ? null : toObjectId(after),
+                pageSize);
+    }
+
+    /**
+     * Converts a message document into the JSON the forum endpoints send.
+     * 
+     * @param doc A document from the Messages collection.
+     * @return The message as JSON.
+     */
+    public static JSONObject toJson(Document doc) {
+        ObjectId id = doc.getObjectId("_id");
+        Object timestamp = doc.get("Timestamp");
+        if (timestamp == null && id != null) {
+            // Older messages only have the formatted time, the id still knows when they were posted
+            timestamp = id.getDate().getTime();
+        }
+        return new JSONObject()
+                .put("Id", id == null ? JSONObject.NULL : id.toHexString())
+                .put("Display Name", doc.getString("Display Name"))
+                .put("Message", doc.getString("Message"))
+                .put("Time", doc.getString("Time"))
+                .put("Timestamp", timestamp == null ? JSONObject.NULL : timestamp);
+    }
+
+    private static ObjectId toObjectId(String id) {
+        if (!ObjectId.isValid(id)) {
+            throw new IllegalArgumentException("Not a valid message id: " + id);
+        }
+        return new ObjectId(id);
     }
 
     /**
@@ -72,18 +172,16 @@ public class Forums {
      * @return A list of lists, where each inner list contains message metadata and content.
      */
     public ArrayList<ArrayList<String>> getMessages() {
-        ArrayList<ArrayList<String>> messages = new ArrayList<>();
-
-        MongoCollection<Document> messageCollection = mongoDB.returnCollection("Forum", "Messages", mongoClient);
+        ArrayList<ArrayList<String>> allMessages = new ArrayList<>();
 
-        for (Document doc : messageCollection.find()) {
+        for (Document doc : messages.findAll()) {
             ArrayList<String> userMsg = new ArrayList<>();
             userMsg.add(doc.getString("Time"));
             userMsg.add(doc.getString("Display Name"));
             userMsg.add(doc.getString("Message"));
-            messages.add(userMsg);
+            allMessages.add(userMsg);
         }
 
-        return messages;
+        return allMessages;
     }
 }
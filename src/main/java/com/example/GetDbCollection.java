@@ -3,15 +3,24 @@ package com.example;
 /**
  * Facilitates access to MongoDB collections and provides functionality to update documents within these collections.
  * Specifically designed to open collections based on provided database and collection names, and perform updates on
- * documents based on user specifications.
- * 
+ * documents based on user specifications. The operations done here are timed in Metrics.
+ *
  * @Date 15-3-23
  */
 
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import com.mongodb.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.Updates;
 import org.bson.Document;
 import org.bson.conversions.Bson;
@@ -26,10 +35,22 @@ public class GetDbCollection {
         // Potential setup or initialization code can be added here.
     }
 
+    /**
+     * Creates the unique "Username" indexes that every per-user lookup and update relies on. Safe to call on every
+     * startup, MongoDB treats creating an index that already exists as a no-op.
+     *
+     * @param mongoClient The MongoClient used to access the database.
+     */
+    public void ensureIndexes(MongoClient mongoClient) {
+        IndexOptions unique = new IndexOptions().unique(true);
+        returnCollection("UserDatabase", "Users", mongoClient).createIndex(Indexes.ascending("Username"), unique);
+        returnCollection("Tasks", "Leaderboard", mongoClient).createIndex(Indexes.ascending("Username"), unique);
+    }
+
     /**
      * Retrieves a MongoCollection<Document> based on the specified database and collection names using the provided
      * MongoClient.
-     * 
+     *
      * @param db The name of the database.
      * @param collection The name of the collection within the database.
      * @param mongoClient The MongoClient used to access the database.
@@ -44,7 +65,7 @@ public class GetDbCollection {
     /**
      * Updates a specific field for a document within the specified database and collection, based on the username
      * and the new value for the field. This method assumes documents contain a "Username" field for identification.
-     * 
+     *
      * @param database The name of the database.
      * @param collectionName The name of the collection.
      * @param username The username identifying the document to update.
@@ -52,16 +73,60 @@ public class GetDbCollection {
      * @param updatedVar The new value for the field.
      * @param mongoClient The MongoClient used to perform the database operation.
      */
-    public void updateDatabase(String database, String collectionName, String username, String field, String updatedVar, MongoClient mongoClient) {
+    public void updateDatabase(String database, String collectionName, String username, String field, Object updatedVar, MongoClient mongoClient) {
+        MongoCollection<Document> collection = returnCollection(database, collectionName, mongoClient);
+        long start = System.nanoTime();
+        collection.updateOne(Filters.eq("Username", username), Updates.set(field, updatedVar));
+        Metrics.recordMongo("updateOne", collectionName, start);
+    }
+
+    /**
+     * Sets several fields on the document identified by the username in a single write.
+     *
+     * @param database The name of the database.
+     * @param collectionName The name of the collection.
+     * @param username The username identifying the document to update.
+     * @param fields The fields to set, keyed by field name.
+     * @param mongoClient The MongoClient used to perform the database operation.
+     */
+    public void updateDatabase(String database, String collectionName, String username, Map<String, ?> fields, MongoClient mongoClient) {
+        if (fields.isEmpty()) {
+            return;
+        }
+        MongoCollection<Document> collection = returnCollection(database, collectionName, mongoClient);
+        long start = System.nanoTime();
+        collection.updateOne(Filters.eq("Username", username), setAll(fields));
+        Metrics.recordMongo("updateOne", collectionName, start);
+    }
+
+    /**
+     * Sets several fields on the document identified by the username and returns the document as it is after the
+     * update, or null if no document has that username.
+     *
+     * @param database The name of the database.
+     * @param collectionName The name of the collection.
+     * @param username The username identifying the document to update.
+     * @param fields The fields to set, keyed by field name.
+     * @param mongoClient The MongoClient used to perform the database operation.
+     * @return The updated document, or null if it doesn't exist.
+     */
+    public Document findAndUpdate(String database, String collectionName, String username, Map<String, ?> fields, MongoClient mongoClient) {
         MongoCollection<Document> collection = returnCollection(database, collectionName, mongoClient);
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER);
+        long start = System.nanoTime();
+        Document updated = collection.findOneAndUpdate(Filters.eq("Username", username), setAll(fields), options);
+        Metrics.recordMongo("findOneAndUpdate", collectionName, start);
+        return updated;
+    }
 
-        // The method iterates over all documents. Consider using a more efficient query to directly find and update the document.
-        for (Document doc : collection.find()) {
-            if (username.equals(doc.getString("Username"))) {
-                Bson updates = Updates.set(field, updatedVar);
-                collection.updateOne(doc, updates);
-                break;
-            }
+    /**
+     * Combines one $set per entry into a single update document.
+     */
+    private Bson setAll(Map<String, ?> fields) {
+        List<Bson> updates = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : fields.entrySet()) {
+            updates.add(Updates.set(entry.getKey(), entry.getValue()));
         }
+        return Updates.combine(updates);
     }
 }
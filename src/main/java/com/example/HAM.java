@@ -9,26 +9,23 @@ package com.example;
  */
 
 
-import com.mongodb.MongoClient;
-import com.mongodb.client.MongoCollection;
 import org.bson.Document; 
 
 
 public class HAM implements Task {
 
     private User user; // The user making the food selection
-    private GetDbCollection mongoDB = new GetDbCollection(); // Utility class for accessing MongoDB collections
-    private MongoClient mongoClient; // MongoDB client for database interactions
+    private TaskRepository tasks; // Where completed tasks are recorded
 
     /**
-     * Constructs a HAM instance for a given user and MongoDB client.
+     * Constructs a HAM instance for a given user and task repository.
      * 
      * @param user The user associated with this HAM instance.
-     * @param mongoClient The MongoClient used for interacting with the MongoDB database.
+     * @param tasks The repository completed tasks are recorded in.
      */
-    public HAM(User user, MongoClient mongoClient) {
+    public HAM(User user, TaskRepository tasks) {
         this.user = user;
-        this.mongoClient = mongoClient;
+        this.tasks = tasks;
     }
 
     /**
@@ -46,9 +43,17 @@ public class HAM implements Task {
      * such as dietary recommendations or meal planning.
      */
     public void completeTask() {
-        MongoCollection<Document> foodCollection = mongoDB.returnCollection("Tasks", "FoodSelection", mongoClient);
         Document document = new Document("Username", user.getUsername())
                 .append("Display Name", user.getDisplayName());
-        foodCollection.insertOne(document);
+        tasks.insert(getLeaderboardField(), document);
+    }
+
+    /**
+     * Returns the leaderboard field the food selection task counts towards.
+     * 
+     * @return "Food"
+     */
+    public String getLeaderboardField() {
+        return "Food";
     }
 }
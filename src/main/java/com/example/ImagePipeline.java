@@ -0,0 +1,345 @@
+package com.example;
+
+/**
+ * Makes the smaller versions of stored images off of the request threads. An upload only stores the original bytes
+ * and queues the image here; a small pool of workers decodes it once, scales it down to each Variant and stores the
+ * encoded results next to the original in the ImageRepository. Profile lists and forum avatars can then ask for a
+ * thumbnail instead of decoding or downloading whatever resolution was uploaded. The queue is bounded, when it is full
+ * new images are skipped and get their variants the next time one is asked for.
+ * @Date: 18-10-2026
+ */
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+
+public class ImagePipeline {
+
+    /**
+     * The sizes every image is made in, each bounded by the length of its longest edge.
+     */
+    public enum Variant {
+        THUMBNAIL("thumbnail", 64),
+        CARD("card", 320),
+        FULL("full", 1280);
+
+        private final String name;
+        private final int maxEdge;
+
+        Variant(String name, int maxEdge){
+            this.name = name;
+            this.maxEdge = maxEdge;
+        }
+
+        /**
+         * Returns the name used in URLs and in the ImageRepository.
+         * @return The variant's name.
+         */
+        public String getName(){
+            return name;
+        }
+
+        /**
+         * Returns the longest edge of this variant in pixels.
+         * @return The maximum width or height.
+         */
+        public int getMaxEdge(){
+            return maxEdge;
+        }
+
+        /**
+         * Finds a variant by name.
+         * @param name "thumbnail", "card" or "full", case insensitive.
+         * @return The variant, or null if there isn't one with that name.
+         */
+        public static Variant fromName(String name){
+            for(Variant variant : values()){
+                if( variant.name.equalsIgnoreCase(name) ){
+                    return variant;
+                }
+            }
+            return null;
+        }
+    }
+
+    //Anything bigger is refused before it is decoded, a 100 megapixel image already needs 400MB as a BufferedImage
+    private static final long MAX_PIXELS = 40000000L;
+
+    private final ImageRepository images;
+    private final ThreadPoolExecutor workers;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();  //Not images, so asking again won't help
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+    private final AtomicLong resizeNanos = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private final AtomicLong storeNanos = new AtomicLong();
+
+    /**
+     * Creates a pipeline using the IMAGE_WORKERS and IMAGE_QUEUE settings.
+     * @param images The ImageRepository holding the originals, the variants are stored there as well.
+     */
+    public ImagePipeline(ImageRepository images){
+        this( images, ServerConfig.getInt("IMAGE_WORKERS", 2), ServerConfig.getInt("IMAGE_QUEUE", 100) );
+    }
+
+    /**
+     * Creates a pipeline.
+     * @param images The ImageRepository holding the originals, the variants are stored there as well.
+     * @param workerThreads How many images are processed at once.
+     * @param queueSize How many images can wait to be processed.
+     */
+    public ImagePipeline(ImageRepository images, int workerThreads, int queueSize){
+        this.images = images;
+        this.workers = new ThreadPoolExecutor(Math.max(1, workerThreads), Math.max(1, workerThreads), 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), RequestExecutor.namedThreads("image-"));
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues an image to have its variants made, unless it is already queued or known not to be an image.
+     * @param hash The original's ImageRepository reference.
+     * @return False if the queue was full and the image was skipped.
+     */
+    public boolean submit(final String hash){
+        if( !Images.isReference(hash) || failed.contains(hash) || !inFlight.add(hash) ){
+            return true;
+        }
+        try{
+            workers.execute(new Runnable(){
+                public void run(){
+                    try{
+                        process(hash);
+                    }
+                    finally{
+                        inFlight.remove(hash);
+                    }
+                }
+            });
+            return true;
+        }
+        catch(RejectedExecutionException e){
+            inFlight.remove(hash);
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Returns how many images are waiting for a worker.
+     * @return The queue depth.
+     */
+    public int getQueueDepth(){
+        return workers.getQueue().size();
+    }
+
+    /**
+     * Returns how many images are being processed right now.
+     * @return The number of busy workers.
+     */
+    public int getActiveCount(){
+        return workers.getActiveCount();
+    }
+
+    /**
+     * Returns how many images have had their variants made.
+     * @return The number of processed images.
+     */
+    public long getProcessedCount(){
+        return processed.get();
+    }
+
+    /**
+     * Returns how many images couldn't be processed, usually because they weren't images.
+     * @return The number of failures.
+     */
+    public long getFailedCount(){
+        return failures.get();
+    }
+
+    /**
+     * Returns how many images were skipped because the queue was full.
+     * @return The number of rejected images.
+     */
+    public long getRejectedCount(){
+        return rejected.get();
+    }
+
+    /**
+     * Returns the average time per processed image of one stage, in milliseconds.
+     * @param stage "load", "decode", "resize", "encode" or "store".
+     * @return The average, 0 before the first image or for an unknown stage.
+     */
+    public double getAverageMillis(String stage){
+        long count = processed.get();
+        if(count == 0){
+            return 0;
+        }
+        AtomicLong total;
+        switch(stage){
+            case "load": total = loadNanos; break;
+            case "decode": total = decodeNanos; break;
+            case "resize": total = resizeNanos; break;
+            case "encode": total = encodeNanos; break;
+            case "store": total = storeNanos; break;
+            default: return 0;
+        }
+        return total.get() / 1e6 / count;
+    }
+
+    /**
+     * Stops taking images and gives the queued ones a moment to finish.
+     */
+    public void shutdown(){
+        workers.shutdown();
+        try{
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void process(String hash){
+        if( images.hasVariant(hash, Variant.THUMBNAIL.getName()) ){
+            return; //Made before, thumbnails are stored last
+        }
+
+        long start = System.nanoTime();
+        byte[] original = images.load(hash);
+        long loaded = System.nanoTime();
+        BufferedImage source = original == null ? null : decode(original);
+        long decoded = System.nanoTime();
+        if(source == null){
+            failures.incrementAndGet();
+            if( failed.size() > 10000 ){
+                failed.clear();
+            }
+            failed.add(hash);
+            return;
+        }
+
+        long resize = 0, encode = 0, store = 0;
+        //Largest first, each smaller variant is scaled from the previous one which is much cheaper than the original
+        Variant[] order = { Variant.FULL, Variant.CARD, Variant.THUMBNAIL };
+        BufferedImage current = source;
+        try{
+            for(Variant variant : order){
+                long t0 = System.nanoTime();
+                current = scale(current, variant.getMaxEdge());
+                long t1 = System.nanoTime();
+                byte[] encoded = encode(current);
+                long t2 = System.nanoTime();
+                images.storeVariant(hash, variant.getName(), encoded);
+                long t3 = System.nanoTime();
+                resize += t1 - t0;
+                encode += t2 - t1;
+                store += t3 - t2;
+            }
+        }
+        catch(IOException | RuntimeException e){
+            failures.incrementAndGet();
+            System.out.println("Couldn't make the variants of image " + hash + ": " + e);
+            return;
+        }
+
+        loadNanos.addAndGet(loaded - start);
+        decodeNanos.addAndGet(decoded - loaded);
+        resizeNanos.addAndGet(resize);
+        encodeNanos.addAndGet(encode);
+        storeNanos.addAndGet(store);
+        processed.incrementAndGet();
+    }
+
+    /**
+     * Decodes an image after checking its dimensions, so a small file claiming huge dimensions can't use up the heap.
+     * @param data The image bytes.
+     * @return The image, or null if it isn't a readable image or is too large.
+     */
+    private static BufferedImage decode(byte[] data){
+        try( ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data)) ){
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if( !readers.hasNext() ){
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try{
+                reader.setInput(in, true, true);
+                if( (long) reader.getWidth(0) * reader.getHeight(0) > MAX_PIXELS ){
+                    return null;
+                }
+                return reader.read(0);
+            }
+            finally{
+                reader.dispose();
+            }
+        }
+        catch(IOException | RuntimeException e){
+            return null;
+        }
+    }
+
+    /**
+     * Scales an image down so its longest edge is at most maxEdge, halving repeatedly first so large reductions still
+     * look smooth with bilinear filtering. Images are never scaled up.
+     * @param image The image to scale.
+     * @param maxEdge The longest edge allowed.
+     * @return The scaled image, in an RGB or ARGB buffer ready to encode.
+     */
+    static BufferedImage scale(BufferedImage image, int maxEdge){
+        int width = image.getWidth(), height = image.getHeight();
+        double factor = Math.min(1.0, (double) maxEdge / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * factor));
+        int targetHeight = Math.max(1, (int) Math.round(height * factor));
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        BufferedImage current = image;
+        do{
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage next = new BufferedImage(width, height, type);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, width, height, null);
+            g.dispose();
+            current = next;
+        } while( width != targetWidth || height != targetHeight );
+
+        return current;
+    }
+
+    /**
+     * Encodes an image as JPEG, or as PNG when it has transparency that JPEG would lose.
+     * @param image The image to encode.
+     * @return The encoded bytes.
+     * @throws IOException If no writer is available for the format.
+     */
+    private static byte[] encode(BufferedImage image) throws IOException{
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String format = image.getColorModel().hasAlpha() ? "png" : "jpg";
+        if( !ImageIO.write(image, format, out) ){
+            throw new IOException("No " + format + " writer");
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,50 @@
+package com.example;
+
+/**
+ * Profile pictures and photo gallery images, keyed by the SHA-256 hash of their bytes, so user documents only keep a
+ * 64 character reference instead of the whole base64 image. Since a hash always points at the same bytes the images
+ * can be cached forever by clients. Resized variants are kept next to the original under Images.variantName.
+ * @Date: 18-10-2026
+ */
+
+
+public interface ImageRepository {
+
+    /**
+     * Stores an image unless one with the same bytes is already stored.
+     * @param data The image bytes.
+     * @return The image's reference, the hex SHA-256 of its bytes.
+     */
+    String store(byte[] data);
+
+    /**
+     * Reads a stored image.
+     * @param hash The image's reference.
+     * @return The image bytes, or null if there's no image with that reference.
+     */
+    byte[] load(String hash);
+
+    /**
+     * Stores a resized version of an image under the original's hash, replacing an older one of the same variant.
+     * @param hash The original's reference.
+     * @param variant The variant's name, e.g. "thumbnail".
+     * @param data The encoded variant.
+     */
+    void storeVariant(String hash, String variant, byte[] data);
+
+    /**
+     * Reads a resized version of an image.
+     * @param hash The original's reference.
+     * @param variant The variant's name.
+     * @return The encoded variant, or null if it hasn't been made yet.
+     */
+    byte[] loadVariant(String hash, String variant);
+
+    /**
+     * Checks whether a resized version of an image has been made, without reading it.
+     * @param hash The original's reference.
+     * @param variant The variant's name.
+     * @return Whether the variant is stored.
+     */
+    boolean hasVariant(String hash, String variant);
+}
@@ -0,0 +1,122 @@
+package com.example;
+
+/**
+ * What the ImageRepository implementations and the image endpoints share: an image's reference is the hex SHA-256
+ * of its bytes, uploads arrive as base64, and the content type is worked out from the bytes themselves.
+ * @Date: 18-10-2026
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+
+public final class Images {
+
+    private Images(){
+    }
+
+    /**
+     * Returns the file name of a variant, which is also the value of its ETag.
+     * @param hash The original's reference.
+     * @param variant The variant's name.
+     * @return The hash and variant joined by a '-'.
+     */
+    public static String variantName(String hash, String variant){
+        return hash + "-" + variant;
+    }
+
+    /**
+     * Returns true if the value is an image reference rather than an image, i.e. 64 lowercase hex characters.
+     * @param value A PFP or photo gallery value from a user document.
+     * @return Whether it's a reference.
+     */
+    public static boolean isReference(String value){
+        if(value == null || value.length() != 64){
+            return false;
+        }
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            if( !((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')) ){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Turns an uploaded image into bytes. Uploads are base64 (optionally as a data: URL), anything that isn't valid
+     * base64, like the file names some older clients sent, is kept as the text it was sent as.
+     * @param value The uploaded value.
+     * @return The image bytes.
+     */
+    public static byte[] decodeUpload(String value){
+        String base64 = value;
+        int comma = value.indexOf(',');
+        if( value.startsWith("data:") && comma > 0 ){
+            base64 = value.substring(comma + 1);
+        }
+        //Line breaks are allowed in base64 and a '+' that wasn't escaped in a URL arrives as a space
+        base64 = base64.replace("\r", "").replace("\n", "").replace(' ', '+');
+        try{
+            return Base64.getDecoder().decode(base64);
+        }
+        catch(IllegalArgumentException e){
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Guesses the content type of an image from its first bytes.
+     * @param data The image bytes.
+     * @return The MIME type, application/octet-stream if it isn't a known image format.
+     */
+    public static String contentType(byte[] data){
+        if( startsWith(data, 0x89, 'P', 'N', 'G') ){
+            return "image/png";
+        }
+        if( startsWith(data, 0xFF, 0xD8, 0xFF) ){
+            return "image/jpeg";
+        }
+        if( startsWith(data, 'G', 'I', 'F', '8') ){
+            return "image/gif";
+        }
+        if( data.length > 12 && startsWith(data, 'R', 'I', 'F', 'F') && data[8] == 'W' && data[9] == 'E' && data[10] == 'B' && data[11] == 'P' ){
+            return "image/webp";
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * Returns the hex SHA-256 hash of the bytes.
+     * @param data The bytes to hash.
+     * @return 64 lowercase hex characters.
+     */
+    public static String sha256(byte[] data){
+        try{
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(64);
+            for(byte b : digest){
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+        catch(NoSuchAlgorithmException e){
+            //Every JDK is required to have SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean startsWith(byte[] data, int... prefix){
+        if(data.length < prefix.length){
+            return false;
+        }
+        for(int i = 0; i < prefix.length; i++){
+            if( (data[i] & 0xFF) != prefix[i] ){
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -3,87 +3,132 @@ package com.example;
 /**
  * Manages and updates the leaderboard by aggregating task completion information from various collections
  * within the Tasks database. Updates are reflected in the leaderboard collection, sorted by points.
+ * Completions are scored as they happen through recordCompletion, a refresh only picks up task documents newer
+ * than the high-water mark saved for each collection.
  * 
  * @Date: 4-3-2023
  */
 
 
 
-import com.mongodb.MongoClient;
-import com.mongodb.client.MongoCollection;
 import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.json.JSONArray;
+import org.json.JSONObject;
  
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.List;
  
  
 public class LeaderBoard {
     
-    private MongoClient mongoClient; // MongoDB client for database interactions
-    private GetDbCollection mongoDB = new GetDbCollection(); // Utility for accessing MongoDB collections
+    public static final int POINTS_PER_TASK = 100; // Points awarded for completing each task
+
+    // Kinds of tasks scored on the leaderboard, by leaderboard field
+    private static final String[] TASKS = { "Dorm", "Class", "Facilities", "Faculty", "Food" };
+
+    private final LeaderboardRepository leaderboard; // Points and completed tasks per user
+    private final TaskRepository tasks; // Completed tasks, read by a refresh
+    private final RankedLeaderboard ranking = new RankedLeaderboard(); // Users in rank order, kept in sync with every score change
+    private volatile boolean rankingLoaded = false;
+
+    /**
+     * Initializes a LeaderBoard instance with the storage it keeps its points in.
+     * 
+     * @param storage The storage whose leaderboard and task repositories are used.
+     */
+    public LeaderBoard(Storage storage) {
+        this.leaderboard = storage.leaderboard();
+        this.tasks = storage.tasks();
+    }
 
     /**
-     * Initializes a LeaderBoard instance with a MongoDB client.
+     * Scores a task right after it has been completed, so the leaderboard doesn't have to wait for a refresh.
      * 
-     * @param mongoClient The MongoClient used for interacting with the database.
+     * @param username The username of the user who completed the task.
+     * @param task The completed task.
      */
-    public LeaderBoard(MongoClient mongoClient) {
-        this.mongoClient = mongoClient;
+    public void recordCompletion(String username, Task task) {
+        updateLeaderBoard(username, task.getLeaderboardField());
     }
 
     /**
-     * Gathers task completion information from multiple collections within the Tasks database and updates
-     * the leaderboard collection accordingly.
+     * Gathers task completion information for every kind of task and updates the leaderboard accordingly.
+     * Only task documents added since the last refresh are read.
      */
-    public void getTasksInformation() {
-        // Collections for each task type
-        MongoCollection<Document> dormCollection = mongoDB.returnCollection("Tasks", "DormSelection", mongoClient);
-        MongoCollection<Document> classCollection = mongoDB.returnCollection("Tasks", "ClassSelection", mongoClient);
-        MongoCollection<Document> facilitiesCollection = mongoDB.returnCollection("Tasks", "FacilitiesSelection", mongoClient);
-        MongoCollection<Document> facultyCollection = mongoDB.returnCollection("Tasks", "FacultySelection", mongoClient);
-        MongoCollection<Document> foodCollection = mongoDB.returnCollection("Tasks", "FoodSelection", mongoClient);
-
-        // Update leaderboard for each task type
-        updateLeaderboardForCollection(dormCollection, "Dorm");
-        updateLeaderboardForCollection(classCollection, "Class");
-        updateLeaderboardForCollection(facilitiesCollection, "Facilities");
-        updateLeaderboardForCollection(facultyCollection, "Faculty");
-        updateLeaderboardForCollection(foodCollection, "Food");
+    public synchronized void getTasksInformation() {
+        for (String field : TASKS) {
+            updateLeaderboardForTask(field);
+        }
     }
 
     /**
-     * Updates the leaderboard for tasks of a specific type based on task completions in the given collection.
+     * Updates the leaderboard for tasks of a specific type based on its recorded completions.
+     * Task documents are read in _id order starting after the task's saved high-water mark, and the mark is
+     * moved forward once they've been scored.
      * 
-     * @param collection The MongoDB collection containing task completions for a specific task type.
      * @param field The field name corresponding to the task type in the leaderboard collection.
      */
-    private void updateLeaderboardForCollection(MongoCollection<Document> collection, String field) {
-        for (Document doc : collection.find()) {
+    private void updateLeaderboardForTask(String field) {
+        ObjectId lastId = tasks.getProgress(field);
+
+        ObjectId newLastId = lastId;
+        for (Document doc : tasks.findAfter(field, lastId)) {
             String username = doc.getString("Username");
             updateLeaderBoard(username, field);
+            newLastId = doc.getObjectId("_id");
+        }
+
+        if (newLastId != null && !newLastId.equals(lastId)) {
+            tasks.setProgress(field, newLastId);
         }
     }
 
     /**
      * Updates the leaderboard entry for a specific user based on the completion of a task identified by the field parameter.
      * If the task was not previously completed by the user, updates the task as completed and increments the user's points.
+     * The check and both updates are a single atomic step, so two refreshes scoring the same task at once can't
+     * both award the points. Completions of different tasks can read their totals back in either order, so the
+     * ranking only ever takes the higher one.
      * 
      * @param username The username of the user whose leaderboard entry is to be updated.
      * @param field The task type to be updated as completed.
      */
     public void updateLeaderBoard(String username, String field) {
-        MongoCollection<Document> lbCollection = mongoDB.returnCollection("Tasks", "Leaderboard", mongoClient);
-
-        // Increment points and update task completion status
-        for (Document doc : lbCollection.find()) {
-            if (username.equals(doc.getString("Username")) && "False".equals(doc.getString(field))) {
-                mongoDB.updateDatabase("Tasks", "Leaderboard", username, field, "True", mongoClient);
-                int points = Integer.parseInt(doc.getString("Points")) + 100;
-                mongoDB.updateDatabase("Tasks", "Leaderboard", username, "Points", String.valueOf(points), mongoClient);
-                break; // Exit loop once the user is found and updated
+        Document updated = leaderboard.completeTask(username, field, POINTS_PER_TASK);
+
+        if (updated != null) {
+            getRanking().raise(username, readPoints(updated));
+        }
+    }
+
+    /**
+     * Converts leaderboard documents that still store Points as a string to a number, so points can be incremented
+     * on the server. Only documents with string points are read.
+     */
+    public void migratePoints() {
+        leaderboard.migratePoints();
+    }
+
+    /**
+     * Reads the points of a leaderboard document, whether they're stored as a number or as a string.
+     * 
+     * @param doc A document from the Leaderboard collection.
+     * @return The points, or 0 if there are none.
+     */
+    static int readPoints(Document doc) {
+        Object points = doc.get("Points");
+        if (points instanceof Number) {
+            return ((Number) points).intValue();
+        }
+        if (points instanceof String) {
+            try {
+                return Integer.parseInt((String) points);
+            } catch (NumberFormatException e) {
+                return 0;
             }
         }
+        return 0;
     }
 
     /**
@@ -95,29 +140,83 @@ public class LeaderBoard {
     public ArrayList<ArrayList<String>> returnLists() {
         ArrayList<ArrayList<String>> lbInformation = new ArrayList<>();
 
-        MongoCollection<Document> lbCollection = mongoDB.returnCollection("Tasks", "Leaderboard", mongoClient);
-
-        for (Document doc : lbCollection.find()) {
+        // The ranking is already sorted, so this is just a walk over it
+        for (RankedLeaderboard.Entry entry : getRanking().getAllAscending()) {
             ArrayList<String> userPts = new ArrayList<>();
-            String username = doc.getString("Username");
-            userPts.add(username);
-            String strPts = doc.getString("Points");
-            userPts.add(strPts);
+            userPts.add(entry.getUsername());
+            userPts.add(String.valueOf(entry.getPoints()));
             lbInformation.add(userPts);
         }
 
-        // Sorts the 2d array objects based on points converted to integers for accurate numerical sorting
-        Collections.sort(lbInformation, new Comparator<ArrayList<String>>() {
-            @Override
-            public int compare(ArrayList<String> o1, ArrayList<String> o2) {
-                int points1 = Integer.parseInt(o1.get(1));
-                int points2 = Integer.parseInt(o2.get(1));
-                return Integer.compare(points1, points2);
-            }
-        });
-
         return lbInformation;
     }
 
+    /**
+     * Converts leaderboard entries to a JSON array of {Rank, Username, Points} objects.
+     * 
+     * @param entries The entries to convert.
+     * @return The entries as JSON, in the same order.
+     */
+    public static JSONArray toJson(List<RankedLeaderboard.Entry> entries) {
+        JSONArray array = new JSONArray();
+        for (RankedLeaderboard.Entry entry : entries) {
+            array.put(new JSONObject()
+                    .put("Rank", entry.getRank())
+                    .put("Username", entry.getUsername())
+                    .put("Points", entry.getPoints()));
+        }
+        return array;
+    }
+
+    /**
+     * Adds a newly created user to the ranking with no points.
+     * 
+     * @param username The username of the new user.
+     */
+    public void addUser(String username) {
+        getRanking().addIfAbsent(username, 0);
+    }
+
+    /**
+     * Returns a strong ETag for the leaderboard as it is now, it changes whenever anyone's points change.
+     * Read it before the ranking so a response is never labelled with a newer version than it contains.
+     * 
+     * @return The quoted ETag.
+     */
+    public String getETag() {
+        return "\"lb." + getRanking().getVersionTag() + "\"";
+    }
+
+    /**
+     * Returns a strong ETag for one user's view of the leaderboard. The user may come from a session token rather
+     * than the URL, so the tag names them too and one cached view is never reused for another user.
+     * 
+     * @param user The user the response is about.
+     * @return The quoted ETag.
+     */
+    public String getETag(User user) {
+        String userTag = user.getETag();
+        return "\"lb." + getRanking().getVersionTag() + "." + userTag.substring(1, userTag.length() - 1) + "\"";
+    }
+
+    /**
+     * Returns the in-memory ranking, reading the leaderboard repository once the first time it's needed.
+     * 
+     * @return The ranking of every user on the leaderboard.
+     */
+    public RankedLeaderboard getRanking() {
+        if (!rankingLoaded) {
+            synchronized (ranking) {
+                if (!rankingLoaded) {
+                    for (Document doc : leaderboard.findAll()) {
+                        ranking.update(doc.getString("Username"), readPoints(doc));
+                    }
+                    rankingLoaded = true;
+                }
+            }
+        }
+        return ranking;
+    }
+
 
 }
\ No newline at end of file
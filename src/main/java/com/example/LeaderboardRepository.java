@@ -0,0 +1,40 @@
+package com.example;
+
+/**
+ * The leaderboard documents, one per username, holding "Points" and whether each task ("Dorm", "Class",
+ * "Facilities", "Faculty", "Food") has been completed, as "True" or "False".
+ * @Date: 18-10-2026
+ */
+
+import org.bson.Document;
+
+
+public interface LeaderboardRepository {
+
+    /**
+     * Returns every leaderboard document.
+     * @return The documents, with at least "Username" and "Points".
+     */
+    Iterable<Document> findAll();
+
+    /**
+     * Adds a user to the leaderboard.
+     * @param entry The document, with a "Username" not on the leaderboard yet.
+     */
+    void insert(Document entry);
+
+    /**
+     * Marks a task as completed and awards its points, unless the user had already completed it. The check and the
+     * update are one atomic step, so a task completed twice at once only scores once.
+     * @param username The username.
+     * @param field The task's leaderboard field, e.g. "Dorm".
+     * @param points The points to add.
+     * @return The document after the update, or null if the task was already completed or the user isn't there.
+     */
+    Document completeTask(String username, String field, int points);
+
+    /**
+     * Converts documents that still store "Points" as a string to a number, so points can be incremented in place.
+     */
+    void migratePoints();
+}
@@ -0,0 +1,48 @@
+package com.example;
+
+/**
+ * The images kept in a map by file name, for MemoryStorage. The bytes are copied on the way in and out.
+ * @Date: 18-10-2026
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+public class MemoryImageStore implements ImageRepository {
+
+    private final ConcurrentMap<String, byte[]> files = new ConcurrentHashMap<>();
+
+    public String store(byte[] data){
+        String hash = Images.sha256(data);
+        files.putIfAbsent(hash, data.clone());
+        return hash;
+    }
+
+    public byte[] load(String hash){
+        if( !Images.isReference(hash) ){
+            return null;
+        }
+        return read(hash);
+    }
+
+    public void storeVariant(String hash, String variant, byte[] data){
+        files.put(Images.variantName(hash, variant), data.clone());
+    }
+
+    public byte[] loadVariant(String hash, String variant){
+        if( !Images.isReference(hash) ){
+            return null;
+        }
+        return read( Images.variantName(hash, variant) );
+    }
+
+    public boolean hasVariant(String hash, String variant){
+        return files.containsKey( Images.variantName(hash, variant) );
+    }
+
+    private byte[] read(String filename){
+        byte[] data = files.get(filename);
+        return data == null ? null : data.clone();
+    }
+}
@@ -0,0 +1,288 @@
+package com.example;
+
+/**
+ * The repositories kept in memory, for running the server, tests and benchmarks without MongoDB. Nothing survives a
+ * restart. Every repository is safe to use from any number of threads and updates to one document are atomic, like
+ * they are in MongoDB. Documents are copied on the way in and out, so callers can't change what's stored by holding
+ * on to a document, just as they couldn't with a database.
+ * @Date: 18-10-2026
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiFunction;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+
+public class MemoryStorage implements Storage {
+
+    private final UserRepository users = new Users();
+    private final LeaderboardRepository leaderboard = new Leaderboard();
+    private final TaskRepository tasks = new Tasks();
+    private final ForumRepository forum = new Forum();
+    private final ClassRepository classes = new Classes();
+    private final ImageRepository images = new MemoryImageStore();
+
+    public UserRepository users(){ return users; }
+    public LeaderboardRepository leaderboard(){ return leaderboard; }
+    public TaskRepository tasks(){ return tasks; }
+    public ForumRepository forum(){ return forum; }
+    public ClassRepository classes(){ return classes; }
+    public ImageRepository images(){ return images; }
+
+    public void ensureIndexes(){
+        //Every lookup is already a hash or tree lookup
+    }
+
+    /**
+     * Copies a document, along with the lists and documents inside it.
+     */
+    static Document copy(Document doc){
+        if(doc == null){
+            return null;
+        }
+        Document copy = new Document();
+        for(Map.Entry<String, Object> entry : doc.entrySet()){
+            copy.put(entry.getKey(), copyValue(entry.getValue()));
+        }
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copyValue(Object value){
+        if(value instanceof Document){
+            return copy((Document) value);
+        }
+        if(value instanceof List){
+            List<Object> list = new ArrayList<>();
+            for(Object item : (List<Object>) value){
+                list.add(copyValue(item));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    private static List<Document> copyAll(Iterable<Document> docs){
+        List<Document> copies = new ArrayList<>();
+        for(Document doc : docs){
+            copies.add(copy(doc));
+        }
+        return copies;
+    }
+
+    /**
+     * Documents keyed by "Username", the in-memory version of a collection with a unique index on it.
+     */
+    private static class ByUsername {
+
+        final ConcurrentMap<String, Document> documents = new ConcurrentHashMap<>();
+
+        Document find(String username){
+            return username == null ? null : copy(documents.get(username));
+        }
+
+        void insert(Document doc){
+            String username = doc.getString("Username");
+            if( username == null || documents.putIfAbsent(username, copy(doc)) != null ){
+                throw new IllegalArgumentException("Duplicate username: " + username);
+            }
+        }
+
+        /**
+         * Replaces a document with a changed copy of it, atomically.
+         * @return The document after the change, or null if there's no such document or the change returned null.
+         */
+        Document change(String username, final BiFunction<String, Document, Document> change){
+            final Document[] result = new Document[1];
+            documents.computeIfPresent(username, new BiFunction<String, Document, Document>(){
+                public Document apply(String key, Document current){
+                    Document changed = change.apply(key, copy(current));
+                    result[0] = changed;
+                    return changed == null ? current : changed;
+                }
+            });
+            return copy(result[0]);
+        }
+    }
+
+    private static class Users implements UserRepository {
+
+        private final ByUsername users = new ByUsername();
+
+        public Document find(String username){
+            return users.find(username);
+        }
+
+        public Iterable<Document> findAll(){
+            return copyAll( users.documents.values() );
+        }
+
+        public Iterable<String> findAllUsernames(){
+            return new ArrayList<>( users.documents.keySet() );
+        }
+
+        public void insert(Document user){
+            users.insert(user);
+        }
+
+        public void update(String username, String field, Object value){
+            update(username, new Document(field, value));
+        }
+
+        public void update(String username, final Map<String, ?> fields){
+            users.change(username, new BiFunction<String, Document, Document>(){
+                public Document apply(String key, Document doc){
+                    for(Map.Entry<String, ?> field : fields.entrySet()){
+                        doc.put(field.getKey(), copyValue(field.getValue()));
+                    }
+                    return doc;
+                }
+            });
+        }
+    }
+
+    private static class Leaderboard implements LeaderboardRepository {
+
+        private final ByUsername entries = new ByUsername();
+
+        public Iterable<Document> findAll(){
+            return copyAll( entries.documents.values() );
+        }
+
+        public void insert(Document entry){
+            entries.insert(entry);
+        }
+
+        public Document completeTask(String username, final String field, final int points){
+            return entries.change(username, new BiFunction<String, Document, Document>(){
+                public Document apply(String key, Document doc){
+                    if( !"False".equals(doc.get(field)) ){
+                        return null;
+                    }
+                    doc.put(field, "True");
+                    doc.put("Points", LeaderBoard.readPoints(doc) + points);
+                    return doc;
+                }
+            });
+        }
+
+        public void migratePoints(){
+            for(String username : entries.documents.keySet()){
+                entries.change(username, new BiFunction<String, Document, Document>(){
+                    public Document apply(String key, Document doc){
+                        if( !(doc.get("Points") instanceof String) ){
+                            return null;
+                        }
+                        doc.put("Points", LeaderBoard.readPoints(doc));
+                        return doc;
+                    }
+                });
+            }
+        }
+    }
+
+    private static class Tasks implements TaskRepository {
+
+        private final ConcurrentMap<String, ConcurrentSkipListMap<ObjectId, Document>> completions = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, ObjectId> progress = new ConcurrentHashMap<>();
+
+        private ConcurrentSkipListMap<ObjectId, Document> log(String task){
+            ConcurrentSkipListMap<ObjectId, Document> log = completions.get(task);
+            if(log == null){
+                completions.putIfAbsent(task, new ConcurrentSkipListMap<ObjectId, Document>());
+                log = completions.get(task);
+            }
+            return log;
+        }
+
+        public void insert(String task, Document completion){
+            if( completion.getObjectId("_id") == null ){
+                completion.put("_id", new ObjectId());    //Like the driver, the caller's document gets the id too
+            }
+            log(task).put(completion.getObjectId("_id"), copy(completion));
+        }
+
+        public Iterable<Document> findAfter(String task, ObjectId after){
+            ConcurrentSkipListMap<ObjectId, Document> log = log(task);
+            return copyAll( after == null ? log.values() : log.tailMap(after, false).values() );
+        }
+
+        public ObjectId getProgress(String task){
+            return progress.get(task);
+        }
+
+        public void setProgress(String task, ObjectId lastId){
+            progress.put(task, lastId);
+        }
+    }
+
+    private static class Forum implements ForumRepository {
+
+        private final ConcurrentSkipListMap<ObjectId, Document> messages = new ConcurrentSkipListMap<>();
+
+        public void insert(Document message){
+            messages.put(message.getObjectId("_id"), copy(message));
+        }
+
+        public void insertMany(List<Document> messages){
+            for(Document message : messages){
+                insert(message);
+            }
+        }
+
+        public List<Document> findPage(ObjectId before, ObjectId after, int limit){
+            NavigableMap<ObjectId, Document> range;
+            if(after != null){
+                //The messages right after the cursor, so the oldest of them
+                List<Document> page = take(messages.tailMap(after, false), limit);
+                Collections.reverse(page);
+                return page;
+            }
+            else if(before != null){
+                range = messages.headMap(before, false).descendingMap();
+            }
+            else{
+                range = messages.descendingMap();
+            }
+            return take(range, limit);
+        }
+
+        private static List<Document> take(NavigableMap<ObjectId, Document> range, int limit){
+            List<Document> page = new ArrayList<>(Math.min(limit, 64));
+            for(Document message : range.values()){
+                if(page.size() >= limit){
+                    break;
+                }
+                page.add(copy(message));
+            }
+            return page;
+        }
+
+        public List<Document> findAll(){
+            return copyAll( messages.values() );
+        }
+    }
+
+    private static class Classes implements ClassRepository {
+
+        private final List<Document> classes = new CopyOnWriteArrayList<>();
+
+        public void insert(Document course){
+            classes.add(copy(course));
+        }
+
+        public List<Document> findAll(){
+            return copyAll(classes);
+        }
+    }
+}
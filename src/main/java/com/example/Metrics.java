@@ -0,0 +1,269 @@
+package com.example;
+
+/**
+ * Request and database metrics for the whole server, exported in the Prometheus text format on /Metrics.
+ * Every registered route gets a request count, an error count (5xx responses and exceptions), an in-flight gauge and
+ * a latency summary with p50/p99/p999. MongoDB gets the same latency summaries, once per operation done through
+ * GetDbCollection and once per command the driver sends, which also covers queries made on collections directly.
+ * Quantiles are over the last one to two minutes so a slow spell shows up instead of being averaged into the whole
+ * uptime; the _count and _sum series cover the whole uptime as Prometheus expects.
+ * @Date: 18-10-2026
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+
+public class Metrics {
+
+    private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * Durations of one kind of operation: lifetime count and sum, and a histogram of the recent ones.
+     */
+    public static class Timer {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+        private volatile LatencyHistogram current = new LatencyHistogram();
+        private volatile LatencyHistogram previous = new LatencyHistogram();
+        private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+
+        /**
+         * Records one duration.
+         * @param nanos The duration in nanoseconds.
+         */
+        public void record(long nanos){
+            rotate();
+            current.record(nanos);
+            count.increment();
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * Returns a quantile of the durations recorded in the last one to two minutes.
+         * @param quantile Between 0 and 1.
+         * @return The duration in nanoseconds.
+         */
+        public long getQuantile(double quantile){
+            rotate();
+            return current.getQuantile(quantile, previous);
+        }
+
+        public long getCount(){
+            return count.sum();
+        }
+
+        public long getSumNanos(){
+            return sumNanos.sum();
+        }
+
+        private void rotate(){
+            long start = windowStart.get();
+            long now = System.nanoTime();
+            if( now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now) ){
+                //Values recorded into the old current while swapping still count, just one window early
+                previous = now - start >= 2 * WINDOW_NANOS ? new LatencyHistogram() : current;
+                current = new LatencyHistogram();
+            }
+        }
+    }
+
+    /**
+     * The metrics of one registered route.
+     */
+    public static class Route {
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Timer latency = new Timer();
+
+        /**
+         * Marks a request as started.
+         * @return The start time to pass to end().
+         */
+        public long start(){
+            inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        /**
+         * Marks a request as finished.
+         * @param startNanos What start() returned.
+         * @param failed True if the request ended in a 5xx or an exception.
+         */
+        public void end(long startNanos, boolean failed){
+            latency.record(System.nanoTime() - startNanos);
+            inFlight.decrementAndGet();
+            requests.increment();
+            if(failed){
+                errors.increment();
+            }
+        }
+    }
+
+    //Sorted so the output is stable and easy to read
+    private static final ConcurrentMap<String, Route> routes = new ConcurrentSkipListMap<>();
+    private static final ConcurrentMap<String, Timer> mongoOperations = new ConcurrentSkipListMap<>();
+    private static final ConcurrentMap<String, Timer> mongoCommands = new ConcurrentSkipListMap<>();
+    private static final ConcurrentMap<String, LongAdder> mongoCommandFailures = new ConcurrentSkipListMap<>();
+
+    private Metrics(){
+    }
+
+    /**
+     * Returns the metrics of a route, creating them the first time.
+     * @param path The context path, e.g. "/ReturnProfile".
+     * @return The route's metrics.
+     */
+    public static Route route(String path){
+        Route route = routes.get(path);
+        if(route == null){
+            Route created = new Route();
+            route = routes.putIfAbsent(path, created);
+            if(route == null){
+                route = created;
+            }
+        }
+        return route;
+    }
+
+    /**
+     * Records how long a MongoDB operation done through GetDbCollection took.
+     * @param operation The driver method, e.g. "updateOne".
+     * @param collection The collection it ran on.
+     * @param startNanos System.nanoTime() from before the operation.
+     */
+    public static void recordMongo(String operation, String collection, long startNanos){
+        timer(mongoOperations, operation + "\u0000" + collection).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns a listener that times every command the MongoDB driver sends, to be added to the MongoClientOptions.
+     * @return The command listener.
+     */
+    public static CommandListener mongoCommandListener(){
+        return new CommandListener(){
+            public void commandStarted(CommandStartedEvent event){
+            }
+
+            public void commandSucceeded(CommandSucceededEvent event){
+                timer(mongoCommands, event.getCommandName()).record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+            }
+
+            public void commandFailed(CommandFailedEvent event){
+                timer(mongoCommands, event.getCommandName()).record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+                LongAdder failures = mongoCommandFailures.get(event.getCommandName());
+                if(failures == null){
+                    mongoCommandFailures.putIfAbsent(event.getCommandName(), new LongAdder());
+                    failures = mongoCommandFailures.get(event.getCommandName());
+                }
+                failures.increment();
+            }
+        };
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format (version 0.0.4).
+     * @return The metrics page.
+     */
+    public static String toPrometheus(){
+        StringBuilder out = new StringBuilder(8192);
+
+        header(out, "nupath_http_requests_total", "counter", "Requests handled, by route.");
+        for(Map.Entry<String, Route> route : routes.entrySet()){
+            sample(out, "nupath_http_requests_total", "route", route.getKey(), route.getValue().requests.sum());
+        }
+        header(out, "nupath_http_request_errors_total", "counter", "Requests that ended in a 5xx or an exception, by route.");
+        for(Map.Entry<String, Route> route : routes.entrySet()){
+            sample(out, "nupath_http_request_errors_total", "route", route.getKey(), route.getValue().errors.sum());
+        }
+        header(out, "nupath_http_requests_in_flight", "gauge", "Requests being handled right now, by route.");
+        for(Map.Entry<String, Route> route : routes.entrySet()){
+            sample(out, "nupath_http_requests_in_flight", "route", route.getKey(), route.getValue().inFlight.get());
+        }
+        header(out, "nupath_http_request_duration_seconds", "summary", "Request latency, by route.");
+        for(Map.Entry<String, Route> route : routes.entrySet()){
+            summary(out, "nupath_http_request_duration_seconds", "route=\"" + escape(route.getKey()) + "\"",
+                route.getValue().latency);
+        }
+
+        header(out, "nupath_mongo_operation_duration_seconds", "summary", "Latency of MongoDB operations made through GetDbCollection.");
+        for(Map.Entry<String, Timer> operation : mongoOperations.entrySet()){
+            String[] key = operation.getKey().split("\u0000", 2);
+            summary(out, "nupath_mongo_operation_duration_seconds",
+                "operation=\"" + escape(key[0]) + "\",collection=\"" + escape(key[1]) + "\"", operation.getValue());
+        }
+        header(out, "nupath_mongo_command_duration_seconds", "summary", "Latency of every command sent by the MongoDB driver.");
+        for(Map.Entry<String, Timer> command : mongoCommands.entrySet()){
+            summary(out, "nupath_mongo_command_duration_seconds", "command=\"" + escape(command.getKey()) + "\"",
+                command.getValue());
+        }
+        header(out, "nupath_mongo_command_failures_total", "counter", "MongoDB commands that failed, by command.");
+        for(Map.Entry<String, LongAdder> failures : mongoCommandFailures.entrySet()){
+            sample(out, "nupath_mongo_command_failures_total", "command", failures.getKey(), failures.getValue().sum());
+        }
+
+        return out.toString();
+    }
+
+    private static Timer timer(ConcurrentMap<String, Timer> timers, String key){
+        Timer timer = timers.get(key);
+        if(timer == null){
+            Timer created = new Timer();
+            timer = timers.putIfAbsent(key, created);
+            if(timer == null){
+                timer = created;
+            }
+        }
+        return timer;
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help){
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String labelValue, double value){
+        out.append(name).append('{').append(label).append("=\"").append(escape(labelValue)).append("\"} ");
+        appendValue(out, value);
+        out.append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, Timer timer){
+        for(double quantile : QUANTILES){
+            out.append(name).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ");
+            appendValue(out, timer.getQuantile(quantile) / 1e9);
+            out.append('\n');
+        }
+        out.append(name).append("_sum{").append(labels).append("} ");
+        appendValue(out, timer.getSumNanos() / 1e9);
+        out.append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(timer.getCount()).append('\n');
+    }
+
+    private static void appendValue(StringBuilder out, double value){
+        if(value == Math.rint(value) && Math.abs(value) < 1e15){
+            out.append((long) value);
+        }
+        else{
+            out.append(value);
+        }
+    }
+
+    private static String escape(String value){
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
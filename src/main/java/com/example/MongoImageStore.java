@@ -0,0 +1,108 @@
+package com.example;
+
+/**
+ * The images kept in the "Images" GridFS bucket of the UserDatabase database, each file named by its hash (or its
+ * variant name), with the content type in its metadata. GridFS can't have a unique index on the file name (the
+ * chunks are written before the file document, so a rejected upload would leave its chunks behind), so two uploads
+ * racing to store the same name both succeed and then settle on one file: the oldest for an image, whose copies
+ * have the same bytes anyway, and the newest for a variant, which replaces what was there.
+ * @Date: 18-10-2026
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoGridFSException;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+
+
+public class MongoImageStore implements ImageRepository {
+
+    private final GridFSBucket bucket;
+
+    /**
+     * Opens the "Images" GridFS bucket in the UserDatabase database.
+     * @param mongoClient The MongoClient used to access the database.
+     */
+    public MongoImageStore(MongoClient mongoClient){
+        this.bucket = GridFSBuckets.create(mongoClient.getDatabase("UserDatabase"), "Images");
+    }
+
+    public String store(byte[] data){
+        String hash = Images.sha256(data);
+        if( bucket.find(Filters.eq("filename", hash)).first() == null ){
+            GridFSUploadOptions options = new GridFSUploadOptions()
+                .metadata(new Document("Content Type", Images.contentType(data)));
+            bucket.uploadFromStream(hash, new ByteArrayInputStream(data), options);
+            keepOne(hash, false);
+        }
+        return hash;
+    }
+
+    public byte[] load(String hash){
+        if( !Images.isReference(hash) ){
+            return null;
+        }
+        return read(hash);
+    }
+
+    public void storeVariant(String hash, String variant, byte[] data){
+        String name = Images.variantName(hash, variant);
+        for(GridFSFile old : bucket.find(Filters.eq("filename", name))){
+            bucket.delete(old.getObjectId());
+        }
+        GridFSUploadOptions options = new GridFSUploadOptions()
+            .metadata(new Document("Content Type", Images.contentType(data)).append("Original", hash).append("Variant", variant));
+        bucket.uploadFromStream(name, new ByteArrayInputStream(data), options);
+        keepOne(name, true);
+    }
+
+    public byte[] loadVariant(String hash, String variant){
+        if( !Images.isReference(hash) ){
+            return null;
+        }
+        return read( Images.variantName(hash, variant) );
+    }
+
+    public boolean hasVariant(String hash, String variant){
+        return bucket.find(Filters.eq("filename", Images.variantName(hash, variant))).first() != null;
+    }
+
+    /**
+     * Deletes every file with the name but one, after an upload that may have raced another.
+     * @param filename The file name.
+     * @param newest True to keep the newest file, false for the oldest.
+     */
+    private void keepOne(String filename, boolean newest){
+        List<GridFSFile> files = bucket.find(Filters.eq("filename", filename))
+            .sort(newest ? Sorts.descending("_id") : Sorts.ascending("_id")).into(new ArrayList<GridFSFile>());
+        for(int i = 1; i < files.size(); i++){
+            try{
+                bucket.delete(files.get(i).getObjectId());
+            }
+            catch(MongoGridFSException e){
+                //The other upload got to it first
+            }
+        }
+    }
+
+    private byte[] read(String filename){
+        GridFSFile file = bucket.find(Filters.eq("filename", filename)).first();
+        if(file == null){
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.getLength());
+        bucket.downloadToStream(file.getObjectId(), out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,215 @@
+package com.example;
+
+/**
+ * The repositories backed by MongoDB, in the databases and collections the server has always used:
+ * UserDatabase.Users, Tasks.Leaderboard, Tasks.<Task>Selection with Tasks.LeaderboardProgress, Forum.Messages,
+ * ClassDB.Classes, and the UserDatabase.Images GridFS bucket.
+ * @Date: 18-10-2026
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.mongodb.Function;
+import com.mongodb.MongoClient;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+
+
+public class MongoStorage implements Storage {
+
+    private final MongoClient mongoClient;
+    private final GetDbCollection mongoDB = new GetDbCollection();
+    private final UserRepository users = new Users();
+    private final LeaderboardRepository leaderboard = new Leaderboard();
+    private final TaskRepository tasks = new Tasks();
+    private final ForumRepository forum = new Forum();
+    private final ClassRepository classes = new Classes();
+    private final ImageRepository images;
+
+    /**
+     * @param mongoClient The MongoClient used for every repository.
+     */
+    public MongoStorage(MongoClient mongoClient){
+        this.mongoClient = mongoClient;
+        this.images = new MongoImageStore(mongoClient);
+    }
+
+    public UserRepository users(){ return users; }
+    public LeaderboardRepository leaderboard(){ return leaderboard; }
+    public TaskRepository tasks(){ return tasks; }
+    public ForumRepository forum(){ return forum; }
+    public ClassRepository classes(){ return classes; }
+    public ImageRepository images(){ return images; }
+
+    public void ensureIndexes(){
+        mongoDB.ensureIndexes(mongoClient);
+    }
+
+    /**
+     * Returns the MongoClient the repositories use.
+     * @return The MongoClient.
+     */
+    public MongoClient getMongoClient(){
+        return mongoClient;
+    }
+
+    private MongoCollection<Document> collection(String db, String collection){
+        return mongoDB.returnCollection(db, collection, mongoClient);
+    }
+
+    private class Users implements UserRepository {
+
+        public Document find(String username){
+            return collection("UserDatabase", "Users").find( Filters.eq("Username", username) ).first();
+        }
+
+        public Iterable<Document> findAll(){
+            return collection("UserDatabase", "Users").find();
+        }
+
+        public Iterable<String> findAllUsernames(){
+            return collection("UserDatabase", "Users").find().projection( Projections.include("Username") )
+                .map(new Function<Document, String>(){
+                    public String apply(Document doc){
+                        return doc.getString("Username");
+                    }
+                });
+        }
+
+        public void insert(Document user){
+            collection("UserDatabase", "Users").insertOne(user);
+        }
+
+        public void update(String username, String field, Object value){
+            mongoDB.updateDatabase("UserDatabase", "Users", username, field, value, mongoClient);
+        }
+
+        public void update(String username, Map<String, ?> fields){
+            mongoDB.updateDatabase("UserDatabase", "Users", username, fields, mongoClient);
+        }
+    }
+
+    private class Leaderboard implements LeaderboardRepository {
+
+        public Iterable<Document> findAll(){
+            return collection("Tasks", "Leaderboard").find().projection( Projections.include("Username", "Points") );
+        }
+
+        public void insert(Document entry){
+            collection("Tasks", "Leaderboard").insertOne(entry);
+        }
+
+        public Document completeTask(String username, String field, int points){
+            //Only matches if the task isn't completed yet
+            long start = System.nanoTime();
+            Document updated = collection("Tasks", "Leaderboard").findOneAndUpdate(
+                Filters.and(Filters.eq("Username", username), Filters.eq(field, "False")),
+                Updates.combine(Updates.set(field, "True"), Updates.inc("Points", points)),
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+            Metrics.recordMongo("findOneAndUpdate", "Leaderboard", start);
+            return updated;
+        }
+
+        public void migratePoints(){
+            MongoCollection<Document> lbCollection = collection("Tasks", "Leaderboard");
+            for(Document doc : lbCollection.find( Filters.type("Points", BsonType.STRING) )){
+                lbCollection.updateOne( Filters.eq("_id", doc.get("_id")), Updates.set("Points", LeaderBoard.readPoints(doc)) );
+            }
+        }
+    }
+
+    private class Tasks implements TaskRepository {
+
+        //Each task has its own collection, e.g. "DormSelection", and that name is also its key in LeaderboardProgress
+        private String collectionName(String task){
+            return task + "Selection";
+        }
+
+        public void insert(String task, Document completion){
+            collection("Tasks", collectionName(task)).insertOne(completion);
+        }
+
+        public Iterable<Document> findAfter(String task, ObjectId after){
+            MongoCollection<Document> completions = collection("Tasks", collectionName(task));
+            FindIterable<Document> found = after == null ? completions.find() : completions.find( Filters.gt("_id", after) );
+            return found.sort( Sorts.ascending("_id") );
+        }
+
+        public ObjectId getProgress(String task){
+            Document mark = collection("Tasks", "LeaderboardProgress")
+                .find( Filters.eq("Collection", collectionName(task)) ).first();
+            return mark == null ? null : mark.getObjectId("Last Id");
+        }
+
+        public void setProgress(String task, ObjectId lastId){
+            collection("Tasks", "LeaderboardProgress").updateOne( Filters.eq("Collection", collectionName(task)),
+                Updates.set("Last Id", lastId), new UpdateOptions().upsert(true) );
+        }
+    }
+
+    private class Forum implements ForumRepository {
+
+        public void insert(Document message){
+            collection("Forum", "Messages").insertOne(message);
+        }
+
+        public void insertMany(List<Document> messages){
+            long start = System.nanoTime();
+            collection("Forum", "Messages").insertMany(messages, new InsertManyOptions().ordered(false));
+            Metrics.recordMongo("insertMany", "Messages", start);
+        }
+
+        public List<Document> findPage(ObjectId before, ObjectId after, int limit){
+            MongoCollection<Document> messages = collection("Forum", "Messages");
+
+            FindIterable<Document> page;
+            if(after != null){
+                //Oldest first so the page is the messages right after the cursor, flipped below
+                page = messages.find( Filters.gt("_id", after) ).sort( Sorts.ascending("_id") );
+            }
+            else if(before != null){
+                page = messages.find( Filters.lt("_id", before) ).sort( Sorts.descending("_id") );
+            }
+            else{
+                page = messages.find().sort( Sorts.descending("_id") );
+            }
+
+            List<Document> found = page.projection( Projections.include("Display Name", "Message", "Time", "Timestamp") )
+                .limit(limit).into(new ArrayList<Document>());
+            if(after != null){
+                Collections.reverse(found);
+            }
+            return found;
+        }
+
+        public List<Document> findAll(){
+            return collection("Forum", "Messages").find().into(new ArrayList<Document>());
+        }
+    }
+
+    private class Classes implements ClassRepository {
+
+        public void insert(Document course){
+            collection("ClassDB", "Classes").insertOne(course);
+        }
+
+        public List<Document> findAll(){
+            return collection("ClassDB", "Classes").find().into(new ArrayList<Document>());
+        }
+    }
+}
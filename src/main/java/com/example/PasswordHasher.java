@@ -0,0 +1,186 @@
+package com.example;
+
+/**
+ * Salted PBKDF2 (HMAC-SHA256) password hashes, stored as "pbkdf2$iterations$salt$hash" with the salt and hash in
+ * base64. Hashing is deliberately slow, so it runs on a small pool of its own: however many logins arrive at once,
+ * at most that many cores are busy hashing and the request threads serving everything else aren't starved. Once the
+ * pool and its queue are full, further logins get a BusyException instead of piling up.
+ * Passwords stored before hashing was added are plain text; verify() still accepts those and needsRehash() says
+ * they should be replaced, which happens on the user's next successful login.
+ * @Date: 18-10-2026
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+
+public class PasswordHasher {
+
+    /**
+     * Thrown when the hashing pool is full, register() answers it with a 503.
+     */
+    public static class BusyException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public BusyException(String message){
+            super(message);
+        }
+    }
+
+    private static final String PREFIX = "pbkdf2";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final SecureRandom random = new SecureRandom();
+    private final int iterations;
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * Creates a hasher from the PASSWORD_ITERATIONS, PASSWORD_THREADS and PASSWORD_QUEUE settings.
+     * @return The configured PasswordHasher.
+     */
+    public static PasswordHasher fromConfig(){
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new PasswordHasher( ServerConfig.getInt("PASSWORD_ITERATIONS", 310000),
+            ServerConfig.getInt("PASSWORD_THREADS", Math.max(1, cores / 2)), ServerConfig.getInt("PASSWORD_QUEUE", 8) );
+    }
+
+    /**
+     * @param iterations PBKDF2 iterations for new hashes, older hashes with fewer are replaced on login.
+     * @param threads How many hashes can be computed at once.
+     * @param queue How many hashes can wait for a thread before BusyException is thrown. Each waiting hash holds a
+     * request thread, so this should stay well below SERVER_THREADS.
+     */
+    public PasswordHasher(int iterations, int threads, int queue){
+        this.iterations = Math.max(1, iterations);
+        this.pool = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(Math.max(1, queue)), RequestExecutor.namedThreads("password-"));
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Hashes a password with a new random salt.
+     * @param password The password.
+     * @return The encoded hash to store.
+     * @throws BusyException If the hashing pool is full.
+     */
+    public String hash(String password){
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = derive(password, salt, iterations);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    /**
+     * Checks a password against what's stored, either an encoded hash or a legacy plain text password.
+     * @param password The password given.
+     * @param stored The stored password, may be null.
+     * @return True if they match.
+     * @throws BusyException If the hashing pool is full.
+     */
+    public boolean verify(String password, String stored){
+        if(password == null || stored == null){
+            return false;
+        }
+        if( !isHashed(stored) ){
+            return MessageDigest.isEqual( password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8) );
+        }
+        String[] parts = stored.split("\\$");
+        if(parts.length != 4){
+            return false;
+        }
+        try{
+            Base64.Decoder decoder = Base64.getDecoder();
+            byte[] expected = decoder.decode(parts[3]);
+            byte[] actual = derive(password, decoder.decode(parts[2]), Integer.parseInt(parts[1]));
+            return MessageDigest.isEqual(expected, actual);
+        }
+        catch(IllegalArgumentException e){
+            return false;   //Also covers a malformed iteration count
+        }
+    }
+
+    /**
+     * Returns whether a stored password should be replaced by a new hash: it's plain text or uses fewer iterations
+     * than are configured now.
+     * @param stored The stored password.
+     * @return True if it should be rehashed once the password is known.
+     */
+    public boolean needsRehash(String stored){
+        if( stored == null || !isHashed(stored) ){
+            return true;
+        }
+        String[] parts = stored.split("\\$");
+        try{
+            return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+        }
+        catch(NumberFormatException e){
+            return true;
+        }
+    }
+
+    /**
+     * Returns whether a stored password is an encoded hash rather than plain text.
+     * @param stored The stored password.
+     * @return True if it was made by hash().
+     */
+    public static boolean isHashed(String stored){
+        return stored != null && stored.startsWith(PREFIX + "$");
+    }
+
+    /**
+     * Stops the hashing threads.
+     */
+    public void shutdown(){
+        pool.shutdown();
+    }
+
+    private byte[] derive(final String password, final byte[] salt, final int rounds){
+        Future<byte[]> result;
+        try{
+            result = pool.submit(new Callable<byte[]>(){
+                public byte[] call() throws GeneralSecurityException{
+                    PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, rounds, HASH_BITS);
+                    try{
+                        return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+                    }
+                    finally{
+                        spec.clearPassword();
+                    }
+                }
+            });
+        }
+        catch(RejectedExecutionException e){
+            throw new BusyException("Too many logins at once");
+        }
+
+        try{
+            return result.get();
+        }
+        catch(InterruptedException e){
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new BusyException("Interrupted while hashing a password");
+        }
+        catch(ExecutionException e){
+            //Every JDK since 8 has PBKDF2WithHmacSHA256, so this is a broken runtime rather than a bad password
+            throw new IllegalStateException("Could not hash password", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example;
+
+/**
+ * The parameters of a query string or form encoded body. It's a plain map from each name to its first value, so
+ * handlers use it like any other Map, and getAll() returns every value of a name that was sent more than once.
+ * parse() goes over the input once, percent-decodes names and values as UTF-8 and turns '+' into a space. Values that
+ * don't need decoding are plain substrings, the rest are decoded through a per-thread buffer that's reused. Only a
+ * small buffer is kept per thread; a larger value, such as a base64 upload, is decoded into an array of its own so
+ * the pool threads don't each hold on to the largest body they have seen.
+ * @Date: 18-10-2026
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class QueryParams extends HashMap<String, String> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_KEPT_BUFFER = 64 * 1024;
+
+    //Decoded bytes of the name or value being parsed, grown as needed and kept for the thread's next request
+    //while it's at most MAX_KEPT_BUFFER
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>(){
+        protected byte[] initialValue(){
+            return new byte[256];
+        }
+    };
+
+    private Map<String, List<String>> repeated = null;  //Only names sent more than once, most requests have none
+
+    /**
+     * Parses a raw query string or form body, e.g. "Username=ann&About+Me=hi%21".
+     * @param raw The still percent-encoded text, may be null.
+     * @return The parameters, empty if there are none.
+     */
+    public static QueryParams parse(CharSequence text){
+        QueryParams params = new QueryParams();
+        if(text == null){
+            return params;
+        }
+        String raw = text.toString();   //String.charAt is cheaper than going through the interface
+
+        int length = raw.length();
+        int start = 0;
+        while(start <= length){
+            //One pass per parameter: find where it ends, where its '=' is and whether it needs decoding
+            int equals = -1;
+            boolean encoded = false;
+            int end = start;
+            for(; end < length; end++){
+                char c = raw.charAt(end);
+                if(c == '&'){
+                    break;
+                }
+                if(c == '=' && equals < 0){
+                    equals = end;
+                }
+                else if(c == '%' || c == '+'){
+                    encoded = true;
+                }
+            }
+
+            if(end > start){
+                int nameEnd = equals < 0 ? end : equals;
+                if(nameEnd > start){
+                    String name = decode(raw, start, nameEnd, encoded);
+                    String value = equals < 0 ? "" : decode(raw, equals + 1, end, encoded);
+                    params.add(name, value);
+                }
+            }
+            start = end + 1;
+        }
+        return params;
+    }
+
+    /**
+     * Returns every value sent for a name, in the order they were sent.
+     * @param name The parameter name.
+     * @return The values, empty if the name wasn't sent.
+     */
+    public List<String> getAll(String name){
+        if(repeated != null && repeated.containsKey(name)){
+            return Collections.unmodifiableList(repeated.get(name));
+        }
+        String value = get(name);
+        return value == null ? Collections.<String>emptyList() : Collections.singletonList(value);
+    }
+
+    /**
+     * Adds a value, it becomes the name's value if it's the first one and is otherwise only returned by getAll().
+     * @param name The parameter name.
+     * @param value The decoded value.
+     */
+    void add(String name, String value){
+        String first = putIfAbsent(name, value);
+        if(first == null){
+            return;
+        }
+        if(repeated == null){
+            repeated = new HashMap<>();
+        }
+        List<String> values = repeated.get(name);
+        if(values == null){
+            values = new ArrayList<>(4);
+            values.add(first);
+            repeated.put(name, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * Decodes a single name or value.
+     * @param raw The still percent-encoded text.
+     * @return The decoded text.
+     */
+    static String decode(String raw){
+        return decode(raw, 0, raw.length(), true);
+    }
+
+    /**
+     * Decodes raw[from, to). Malformed escapes like "%zz" or a trailing "%" are kept as they were sent.
+     */
+    private static String decode(String raw, int from, int to, boolean encoded){
+        if( !encoded ){
+            return raw.substring(from, to);
+        }
+
+        byte[] buffer = BUFFER.get();
+        if(to - from > MAX_KEPT_BUFFER){
+            buffer = new byte[to - from];    //Escapes only shrink ASCII, so usually big enough as it is
+        }
+        int size = 0;
+        for(int i = from; i < to; i++){
+            //One step writes at most 4 bytes, for a surrogate pair
+            if(size + 4 > buffer.length){
+                byte[] bigger = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, bigger, 0, size);
+                buffer = bigger;
+                if(bigger.length <= MAX_KEPT_BUFFER){
+                    BUFFER.set(buffer);
+                }
+            }
+
+            char c = raw.charAt(i);
+            if(c == '+'){
+                buffer[size++] = ' ';
+            }
+            else if(c == '%' && i + 2 < to && hex(raw.charAt(i + 1)) >= 0 && hex(raw.charAt(i + 2)) >= 0){
+                buffer[size++] = (byte) ((hex(raw.charAt(i + 1)) << 4) | hex(raw.charAt(i + 2)));
+                i += 2;
+            }
+            else if(c < 0x80){
+                buffer[size++] = (byte) c;
+            }
+            else if(c < 0x800){
+                buffer[size++] = (byte) (0xC0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if( Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(raw.charAt(i + 1)) ){
+                int codePoint = Character.toCodePoint(c, raw.charAt(++i));
+                buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            }
+            else{
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return new String(buffer, 0, size, StandardCharsets.UTF_8);
+    }
+
+    private static int hex(char c){
+        if(c >= '0' && c <= '9'){
+            return c - '0';
+        }
+        if(c >= 'a' && c <= 'f'){
+            return c - 'a' + 10;
+        }
+        if(c >= 'A' && c <= 'F'){
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,366 @@
+package com.example;
+
+/**
+ * Keeps every user's points in rank order so the leaderboard can answer "top K", "what's my rank" and
+ * "who is around me" without loading and sorting the whole Leaderboard collection on every request.
+ * Backed by an indexed skip list (each link also stores how many entries it skips), which gives O(log N)
+ * updates, rank lookups and lookups by rank.
+ * @Date: 18-10-2026
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+public class RankedLeaderboard {
+
+    private static final int MAX_LEVEL = 32;
+
+    /**
+     * One user's place on the leaderboard.
+     */
+    public static class Entry {
+
+        private final String username;
+        private final int points;
+        private final int rank;
+
+        public Entry(String username, int points, int rank){
+            this.username = username;
+            this.points = points;
+            this.rank = rank;
+        }
+
+        public String getUsername(){ return username; }
+        public int getPoints(){ return points; }
+        public int getRank(){ return rank; }
+    }
+
+    /**
+     * A skip list node. span[i] is how many ranks next[i] is ahead of this node.
+     */
+    private static class Node {
+
+        final String username;
+        final int points;
+        final Node[] next;
+        final int[] span;
+
+        Node(String username, int points, int level){
+            this.username = username;
+            this.points = points;
+            this.next = new Node[level];
+            this.span = new int[level];
+        }
+    }
+
+    private final Node head = new Node(null, 0, MAX_LEVEL);
+    private final Map<String, Integer> points = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int level = 1;
+    //Bumped by every change to the ranking, the epoch keeps versions from before a restart from matching
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private volatile long version = 0;
+
+    /**
+     * Sets a user's points, adding the user if they aren't ranked yet.
+     * @param username The user.
+     * @param newPoints Their points.
+     */
+    public void update(String username, int newPoints){
+        lock.writeLock().lock();
+        try{
+            Integer oldPoints = points.put(username, newPoints);
+            if(oldPoints != null){
+                if(oldPoints == newPoints){
+                    return;
+                }
+                delete(username, oldPoints);
+            }
+            insert(username, newPoints);
+        }
+        finally{
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Raises a user's points to a value read back from storage, adding the user if they aren't ranked yet. Points
+     * only go up, so a value lower than the ranked one is an older read that finished late and is ignored.
+     * @param username The user.
+     * @param newPoints Their points as stored after a change.
+     */
+    public void raise(String username, int newPoints){
+        lock.writeLock().lock();
+        try{
+            Integer oldPoints = points.get(username);
+            if(oldPoints != null){
+                if(oldPoints >= newPoints){
+                    return;
+                }
+                delete(username, oldPoints);
+            }
+            points.put(username, newPoints);
+            insert(username, newPoints);
+        }
+        finally{
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a user with the given points only if they aren't ranked yet.
+     * @param username The user.
+     * @param initialPoints Their points.
+     */
+    public void addIfAbsent(String username, int initialPoints){
+        lock.writeLock().lock();
+        try{
+            if( !points.containsKey(username) ){
+                points.put(username, initialPoints);
+                insert(username, initialPoints);
+            }
+        }
+        finally{
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes a user off the leaderboard.
+     * @param username The user.
+     */
+    public void remove(String username){
+        lock.writeLock().lock();
+        try{
+            Integer oldPoints = points.remove(username);
+            if(oldPoints != null){
+                delete(username, oldPoints);
+            }
+        }
+        finally{
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a value that changes whenever any user's points or place change, for use in ETags. Read it before
+     * reading the ranking, so a response is never labelled with a newer version than it contains.
+     * @return The ranking's version.
+     */
+    public String getVersionTag(){
+        return epoch + "." + version;
+    }
+
+    /**
+     * Returns how many users are ranked.
+     * @return The number of users.
+     */
+    public int size(){
+        lock.readLock().lock();
+        try{
+            return points.size();
+        }
+        finally{
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a user's place, 1 being the most points. Ties are ordered by username.
+     * @param username The user.
+     * @return The user's entry, or null if they aren't ranked.
+     */
+    public Entry getEntry(String username){
+        lock.readLock().lock();
+        try{
+            Integer userPoints = points.get(username);
+            if(userPoints == null){
+                return null;
+            }
+            return new Entry(username, userPoints, rankOf(username, userPoints));
+        }
+        finally{
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to count entries starting at the given rank.
+     * @param fromRank The first rank to return, starting at 1.
+     * @param count The most entries to return.
+     * @return The entries in rank order.
+     */
+    public List<Entry> getRange(int fromRank, int count){
+        lock.readLock().lock();
+        try{
+            return collect(Math.max(1, fromRank), count);
+        }
+        finally{
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the users ranked right above and below a user, along with the user.
+     * @param username The user.
+     * @param range How many places above and below to include.
+     * @return The entries in rank order, empty if the user isn't ranked.
+     */
+    public List<Entry> getAround(String username, int range){
+        lock.readLock().lock();
+        try{
+            Integer userPoints = points.get(username);
+            if(userPoints == null){
+                return Collections.emptyList();
+            }
+            int rank = rankOf(username, userPoints);
+            int from = Math.max(1, rank - range);
+            return collect(from, rank + range - from + 1);
+        }
+        finally{
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns every entry from the fewest points to the most, the order returnLists has always used.
+     * @return All entries, lowest points first.
+     */
+    public List<Entry> getAllAscending(){
+        List<Entry> all = getRange(1, Integer.MAX_VALUE);
+        Collections.reverse(all);
+        return all;
+    }
+
+    /**
+     * Orders by points descending, then username ascending.
+     */
+    private static int compare(int pointsA, String usernameA, int pointsB, String usernameB){
+        if(pointsA != pointsB){
+            return pointsA > pointsB ? -1 : 1;
+        }
+        return usernameA.compareTo(usernameB);
+    }
+
+    private int randomLevel(){
+        int lvl = 1;
+        while(lvl < MAX_LEVEL && ThreadLocalRandom.current().nextInt(4) == 0){
+            lvl++;
+        }
+        return lvl;
+    }
+
+    private void insert(String username, int userPoints){
+        version++;  //Only written under the write lock
+        Node[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+        Node x = head;
+
+        for(int i = level - 1; i >= 0; i--){
+            rank[i] = (i == level - 1) ? 0 : rank[i + 1];
+            while(x.next[i] != null && compare(x.next[i].points, x.next[i].username, userPoints, username) < 0){
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        //points already holds the new user, so the list currently has size() - 1 nodes
+        int length = points.size() - 1;
+        int lvl = randomLevel();
+        if(lvl > level){
+            for(int i = level; i < lvl; i++){
+                rank[i] = 0;
+                update[i] = head;
+                head.span[i] = length;
+            }
+            level = lvl;
+        }
+
+        Node node = new Node(username, userPoints, lvl);
+        for(int i = 0; i < lvl; i++){
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = (rank[0] - rank[i]) + 1;
+        }
+        for(int i = lvl; i < level; i++){
+            update[i].span[i]++;
+        }
+    }
+
+    private void delete(String username, int userPoints){
+        version++;
+        Node[] update = new Node[MAX_LEVEL];
+        Node x = head;
+
+        for(int i = level - 1; i >= 0; i--){
+            while(x.next[i] != null && compare(x.next[i].points, x.next[i].username, userPoints, username) < 0){
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        Node target = x.next[0];
+        if(target == null || !target.username.equals(username)){
+            return;
+        }
+
+        for(int i = 0; i < level; i++){
+            if(update[i].next[i] == target){
+                update[i].span[i] += target.span[i] - 1;
+                update[i].next[i] = target.next[i];
+            }
+            else{
+                update[i].span[i]--;
+            }
+        }
+        while(level > 1 && head.next[level - 1] == null){
+            level--;
+        }
+    }
+
+    private int rankOf(String username, int userPoints){
+        int rank = 0;
+        Node x = head;
+        for(int i = level - 1; i >= 0; i--){
+            while(x.next[i] != null && compare(x.next[i].points, x.next[i].username, userPoints, username) <= 0){
+                rank += x.span[i];
+                x = x.next[i];
+            }
+            if(x != head && x.username.equals(username)){
+                return rank;
+            }
+        }
+        return -1;
+    }
+
+    private List<Entry> collect(int fromRank, int count){
+        List<Entry> entries = new ArrayList<>();
+        int traversed = 0;
+        Node x = head;
+        for(int i = level - 1; i >= 0; i--){
+            while(x.next[i] != null && traversed + x.span[i] < fromRank){
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+        }
+
+        //x is now the node right before fromRank
+        int rank = traversed;
+        x = x.next[0];
+        while(x != null && entries.size() < count){
+            rank++;
+            entries.add(new Entry(x.username, x.points, rank));
+            x = x.next[0];
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,575 @@
+package com.example;
+
+/**
+ * Reads the parameters of write requests from the request body as well as the query string, so passwords, long
+ * about-me texts and images don't have to travel in the URL (where they end up in access logs and hit URL length
+ * limits). Bodies can be form encoded, JSON, or for uploads the raw image itself. Bodies are read straight from the
+ * socket with a size limit, JSON is parsed as it streams in, and a body over the limit is refused with a 413 before
+ * it's read at all when its Content-Length says so. An image sent as a form field is base64 decoded as it streams in,
+ * so it's only ever held once, as its bytes, instead of as the body, its text and its base64 as well.
+ * @Date: 18-10-2026
+ */
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import com.sun.net.httpserver.HttpExchange;
+
+
+public class RequestBody {
+
+    /**
+     * Thrown when a request body can't be accepted, register() answers it with the status code.
+     */
+    public static class RejectedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+        private final int status;
+
+        public RejectedException(int status, String message){
+            super(message);
+            this.status = status;
+        }
+
+        public int getStatus(){
+            return status;
+        }
+    }
+
+    /**
+     * The parameters of an upload and the image it carries.
+     */
+    public static class Upload {
+
+        private final QueryParams params;
+        private final byte[] image;
+
+        Upload(QueryParams params, byte[] image){
+            this.params = params;
+            this.image = image;
+        }
+
+        public QueryParams getParams(){
+            return params;
+        }
+
+        /**
+         * @return The image bytes, or null if the request didn't have one.
+         */
+        public byte[] getImage(){
+            return image;
+        }
+    }
+
+    //The largest body accepted by most writes, and by uploads that carry an image
+    public static final long MAX_BYTES = ServerConfig.getInt("REQUEST_MAX_BYTES", 1 << 20);
+    public static final long MAX_UPLOAD_BYTES = ServerConfig.getInt("UPLOAD_MAX_BYTES", 16 << 20);
+
+    private RequestBody(){
+    }
+
+    /**
+     * Returns the request's parameters from the query string and a form encoded or JSON body, limited to MAX_BYTES.
+     * @param exchange The request.
+     * @return The parameters, values from the body win over ones with the same name in the query string.
+     * @throws IOException If the body is too large, malformed or can't be read.
+     */
+    public static QueryParams params(HttpExchange exchange) throws IOException{
+        return params(exchange, MAX_BYTES);
+    }
+
+    /**
+     * Returns the request's parameters from the query string and a form encoded or JSON body.
+     * @param exchange The request.
+     * @param maxBytes The largest body accepted.
+     * @return The parameters, values from the body win over ones with the same name in the query string.
+     * @throws IOException If the body is too large, malformed or can't be read.
+     */
+    public static QueryParams params(HttpExchange exchange, long maxBytes) throws IOException{
+        QueryParams query = QueryParams.parse( exchange.getRequestURI().getRawQuery() );
+        if( !hasBody(exchange) ){
+            return query;
+        }
+
+        String type = contentType(exchange);
+        QueryParams params;
+        if( type.equals("application/json") || type.endsWith("+json") ){
+            params = parseJson( limited(exchange, maxBytes) );
+        }
+        else if( type.isEmpty() || type.equals("application/x-www-form-urlencoded") || type.startsWith("text/") ){
+            params = QueryParams.parse( new String(bytes(exchange, maxBytes), StandardCharsets.UTF_8) );
+        }
+        else{
+            throw new RejectedException(415, "Unsupported Content-Type: " + type);
+        }
+
+        addMissing(params, query);
+        return params;
+    }
+
+    /**
+     * Reads a request that uploads an image, limited to MAX_UPLOAD_BYTES. The image is either the whole body (image/* or
+     * application/octet-stream, with the other parameters in the query string) or a base64 parameter, see
+     * Images.decodeUpload. A form encoded body is decoded as it's read; a JSON body is parsed whole, so it's held to
+     * MAX_BYTES and larger images have to come as the body or a form.
+     * @param exchange The request.
+     * @param field The name of the parameter that carries the image when it isn't the body.
+     * @return The upload, with a null image if there wasn't one.
+     * @throws IOException If the body is too large, malformed or can't be read.
+     */
+    public static Upload upload(HttpExchange exchange, String field) throws IOException{
+        QueryParams query = QueryParams.parse( exchange.getRequestURI().getRawQuery() );
+        if( isBinary(exchange) ){
+            return new Upload(query, bytes(exchange, MAX_UPLOAD_BYTES));
+        }
+
+        Upload upload;
+        String type = contentType(exchange);
+        if( hasBody(exchange) && ( type.isEmpty() || type.equals("application/x-www-form-urlencoded") || type.startsWith("text/") ) ){
+            upload = readForm( limited(exchange, MAX_UPLOAD_BYTES), contentLength(exchange), field );
+            addMissing(upload.getParams(), query);
+        }
+        else{
+            QueryParams params = params(exchange, MAX_BYTES);
+            upload = new Upload(params, null);
+        }
+
+        String value = upload.getParams().get(field);
+        if(upload.getImage() == null && value != null){
+            return new Upload( upload.getParams(), Images.decodeUpload(value) );
+        }
+        return upload;
+    }
+
+    /**
+     * Reads a form encoded body, passing the first value of the image field through an ImageDecoder instead of
+     * keeping it as text. The other parameters are collected still encoded and parsed with QueryParams at the end.
+     * @param body The body.
+     * @param length The Content-Length, or -1 if it isn't known.
+     * @param field The name of the parameter that carries the image.
+     * @return The other parameters and the image, which is null if the field wasn't sent.
+     */
+    static Upload readForm(InputStream body, long length, String field) throws IOException{
+        InputStream in = new BufferedInputStream(body, 8192);
+        ByteArrayOutputStream rest = new ByteArrayOutputStream(256);
+        ByteArrayOutputStream name = new ByteArrayOutputStream(32);
+        ImageDecoder image = null;
+        boolean inName = true;
+        boolean inImage = false;
+
+        byte[] chunk = new byte[8192];
+        int n;
+        while( (n = in.read(chunk)) >= 0 ){
+            for(int i = 0; i < n; i++){
+                byte b = chunk[i];
+                if(inImage){
+                    if(b == '&'){
+                        inImage = false;
+                        inName = true;
+                    }
+                    else{
+                        image.write(b);
+                    }
+                }
+                else if(inName){
+                    if(b == '='){
+                        inName = false;
+                        String decoded = QueryParams.decode( new String(name.toByteArray(), StandardCharsets.UTF_8) );
+                        if(image == null && decoded.equals(field)){
+                            image = new ImageDecoder(length);
+                            inImage = true;
+                        }
+                        else{
+                            name.writeTo(rest);
+                            rest.write(b);
+                        }
+                        name.reset();
+                    }
+                    else if(b == '&'){
+                        name.writeTo(rest);
+                        rest.write(b);
+                        name.reset();
+                    }
+                    else{
+                        name.write(b);
+                    }
+                }
+                else{
+                    rest.write(b);
+                    inName = b == '&';
+                }
+            }
+        }
+        name.writeTo(rest);
+
+        QueryParams params = QueryParams.parse( new String(rest.toByteArray(), StandardCharsets.UTF_8) );
+        return new Upload(params, image == null ? null : image.finish());
+    }
+
+    /**
+     * Returns true if the body is a file rather than parameters, i.e. an image/* or application/octet-stream upload.
+     * @param exchange The request.
+     * @return Whether the body should be read with bytes().
+     */
+    public static boolean isBinary(HttpExchange exchange){
+        String type = contentType(exchange);
+        return hasBody(exchange) && ( type.startsWith("image/") || type.equals("application/octet-stream") );
+    }
+
+    /**
+     * Reads the whole body. The buffer is sized from Content-Length when there is one, so it's filled without copying.
+     * @param exchange The request.
+     * @param maxBytes The largest body accepted.
+     * @return The body.
+     * @throws IOException If the body is too large or can't be read.
+     */
+    public static byte[] bytes(HttpExchange exchange, long maxBytes) throws IOException{
+        long length = contentLength(exchange);
+        InputStream in = limited(exchange, maxBytes);
+        if(length >= 0){
+            byte[] body = new byte[(int) length];
+            int read = 0;
+            while(read < body.length){
+                int n = in.read(body, read, body.length - read);
+                if(n < 0){
+                    throw new RejectedException(400, "Request body is shorter than its Content-Length");
+                }
+                read += n;
+            }
+            return body;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        byte[] chunk = new byte[8192];
+        int n;
+        while( (n = in.read(chunk)) > 0 ){
+            out.write(chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Adds the query string parameters the body didn't have.
+     */
+    private static void addMissing(QueryParams params, QueryParams query){
+        for(String name : query.keySet()){
+            if( !params.containsKey(name) ){
+                for(String value : query.getAll(name)){
+                    params.add(name, value);
+                }
+            }
+        }
+    }
+
+    private static QueryParams parseJson(InputStream in) throws IOException{
+        JSONObject json;
+        try{
+            json = new JSONObject( new JSONTokener( new InputStreamReader(in, StandardCharsets.UTF_8) ) );
+        }
+        catch(JSONException e){
+            if(e.getCause() instanceof IOException){
+                throw (IOException) e.getCause();   //Usually the body going over the limit
+            }
+            throw new RejectedException(400, "Malformed JSON: " + e.getMessage());
+        }
+
+        QueryParams params = new QueryParams();
+        for(String name : json.keySet()){
+            Object value = json.get(name);
+            if(value instanceof JSONArray){
+                for(Object item : (JSONArray) value){
+                    if(item != JSONObject.NULL){
+                        params.add(name, String.valueOf(item));
+                    }
+                }
+            }
+            else if(value != JSONObject.NULL){
+                params.add(name, String.valueOf(value));
+            }
+        }
+        return params;
+    }
+
+    private static boolean hasBody(HttpExchange exchange){
+        String method = exchange.getRequestMethod();
+        if( "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method) ){
+            return false;
+        }
+        return contentLength(exchange) != 0;
+    }
+
+    private static String contentType(HttpExchange exchange){
+        String type = exchange.getRequestHeaders().getFirst("Content-Type");
+        if(type == null){
+            return "";
+        }
+        int semicolon = type.indexOf(';');
+        return (semicolon < 0 ? type : type.substring(0, semicolon)).trim().toLowerCase();
+    }
+
+    /**
+     * Returns the Content-Length, or -1 if the body is chunked or the header is missing.
+     */
+    private static long contentLength(HttpExchange exchange){
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if(length == null){
+            return -1;
+        }
+        try{
+            return Long.parseLong(length.trim());
+        }
+        catch(NumberFormatException e){
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the body as a stream that fails once more than maxBytes have been read.
+     */
+    private static InputStream limited(HttpExchange exchange, final long maxBytes) throws IOException{
+        if( contentLength(exchange) > maxBytes ){
+            throw new RejectedException(413, "Request body is larger than " + maxBytes + " bytes");
+        }
+        return new FilterInputStream( exchange.getRequestBody() ){
+            private long count = 0;
+
+            public int read() throws IOException{
+                int b = super.read();
+                if(b >= 0){
+                    count(1);
+                }
+                return b;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException{
+                int n = super.read(b, off, len);
+                if(n > 0){
+                    count(n);
+                }
+                return n;
+            }
+
+            private void count(int n) throws IOException{
+                count += n;
+                if(count > maxBytes){
+                    throw new RejectedException(413, "Request body is larger than " + maxBytes + " bytes");
+                }
+            }
+        };
+    }
+
+    /**
+     * Decodes a form encoded image field a byte at a time, into what Images.decodeUpload would make of the whole
+     * value: percent escapes are undone, a data: URL prefix is skipped, line breaks are ignored and a '+' or space is
+     * a '+', then the base64 goes straight into the image's bytes. A value that isn't valid base64 is kept as its text
+     * like decodeUpload does, but only while it's small enough to be the file name some older clients sent.
+     */
+    private static class ImageDecoder {
+
+        private static final int MAX_TEXT = 64 * 1024;
+        private static final byte[] DATA_URL = "data:".getBytes(StandardCharsets.US_ASCII);
+
+        private byte[] image;
+        private int size = 0;
+        private int bits = 0;       //Sextets of the current quantum
+        private int sextets = 0;
+        private int padding = 0;
+        private boolean valid = true;
+
+        private ByteArrayOutputStream text = new ByteArrayOutputStream(256);   //Null once it's over MAX_TEXT
+        private int prefix = 0;         //How much of DATA_URL the value has started with, -1 once it didn't
+        private boolean skipping = false;   //Inside a data: URL's media type, up to its ','
+
+        private int escape = -1;    //Hex digits of a '%' escape seen so far, -1 outside of one
+        private byte escaped;       //The escape's first hex digit
+
+        ImageDecoder(long length){
+            //Base64 is 4 characters for 3 bytes, so that's as large as the image gets if the whole body is the field
+            image = new byte[ (int) Math.min( length < 0 ? 8192 : length / 4 * 3 + 3, MAX_UPLOAD_BYTES ) ];
+        }
+
+        void write(byte b) throws IOException{
+            if(escape >= 0){
+                int digit = hex(b);
+                if(digit < 0){
+                    //Not an escape after all, kept as it was sent
+                    unescape();
+                    write(b);
+                    return;
+                }
+                if(++escape == 2){
+                    escape = -1;
+                    decoded( (byte) ((hex(escaped) << 4) | digit) );
+                }
+                else{
+                    escaped = b;
+                }
+                return;
+            }
+            if(b == '%'){
+                escape = 0;
+            }
+            else{
+                decoded( b == '+' ? (byte) ' ' : b );
+            }
+        }
+
+        byte[] finish() throws IOException{
+            if(escape >= 0){
+                unescape();
+            }
+            if(prefix > 0){
+                //Shorter than "data:", so it was base64 (or text) all along
+                for(int i = 0; i < prefix; i++){
+                    base64( DATA_URL[i] );
+                }
+            }
+            if( skipping || sextets == 1 || ( padding > 0 && sextets + padding != 4 ) ){
+                valid = false;
+            }
+
+            if( !valid ){
+                if(text == null){
+                    throw new RejectedException(400, "The uploaded image isn't valid base64");
+                }
+                return text.toByteArray();
+            }
+            if(sextets == 2){
+                image[size++] = (byte) (bits >> 4);
+            }
+            else if(sextets == 3){
+                image[size++] = (byte) (bits >> 10);
+                image[size++] = (byte) (bits >> 2);
+            }
+            return size == image.length ? image : Arrays.copyOf(image, size);
+        }
+
+        /**
+         * Passes on a '%' that turned out not to start an escape, with the hex digit that followed it if there was one.
+         */
+        private void unescape() throws IOException{
+            int seen = escape;
+            escape = -1;
+            decoded( (byte) '%' );
+            if(seen == 1){
+                decoded(escaped);
+            }
+        }
+
+        /**
+         * Takes the next byte of the percent-decoded value.
+         */
+        private void decoded(byte b) throws IOException{
+            if(text != null){
+                if(text.size() < MAX_TEXT){
+                    text.write(b);
+                }
+                else{
+                    text = null;
+                    if( !valid ){
+                        throw new RejectedException(400, "The uploaded image isn't valid base64");
+                    }
+                }
+            }
+
+            if(skipping){
+                skipping = b != ',';
+            }
+            else if(prefix >= 0){
+                if(b == DATA_URL[prefix]){
+                    if(++prefix == DATA_URL.length){
+                        prefix = -1;
+                        skipping = true;
+                    }
+                    return;
+                }
+                int matched = prefix;
+                prefix = -1;
+                for(int i = 0; i < matched; i++){
+                    base64( DATA_URL[i] );
+                }
+                base64(b);
+            }
+            else{
+                base64(b);
+            }
+        }
+
+        private void base64(byte b){
+            if( !valid || b == '\r' || b == '\n' ){
+                return;
+            }
+            if(b == '='){
+                padding++;
+                valid = sextets >= 2 && sextets + padding <= 4;
+            }
+            else{
+                int value = sextet( b == ' ' ? '+' : b );
+                valid = value >= 0 && padding == 0;
+                if(valid){
+                    quantum(value);
+                }
+            }
+            if( !valid ){
+                image = null;
+            }
+        }
+
+        /**
+         * Adds a sextet, writing out three bytes once there are four.
+         */
+        private void quantum(int value){
+            bits = (bits << 6) | value;
+            if(++sextets == 4){
+                if(size + 3 > image.length){
+                    image = Arrays.copyOf(image, Math.max(image.length * 2, 8192));
+                }
+                image[size++] = (byte) (bits >> 16);
+                image[size++] = (byte) (bits >> 8);
+                image[size++] = (byte) bits;
+                bits = 0;
+                sextets = 0;
+            }
+        }
+
+        private static int sextet(int c){
+            if(c >= 'A' && c <= 'Z'){
+                return c - 'A';
+            }
+            if(c >= 'a' && c <= 'z'){
+                return c - 'a' + 26;
+            }
+            if(c >= '0' && c <= '9'){
+                return c - '0' + 52;
+            }
+            if(c == '+'){
+                return 62;
+            }
+            return c == '/' ? 63 : -1;
+        }
+
+        private static int hex(byte c){
+            if(c >= '0' && c <= '9'){
+                return c - '0';
+            }
+            if(c >= 'a' && c <= 'f'){
+                return c - 'a' + 10;
+            }
+            if(c >= 'A' && c <= 'F'){
+                return c - 'A' + 10;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.example;
+
+/**
+ * Runs the Webserver's requests off of the single dispatcher thread, either on a fixed pool of platform threads or on
+ * a new virtual thread per request when the JDK supports them. The number of accepted requests is bounded, anything
+ * past the limit is handed to a small overflow thread that only answers 503 so the dispatcher is never blocked. If
+ * even that thread falls behind, further connections are refused: execute() throws and the HttpServer closes them.
+ * @Date: 18-10-2026
+ */
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class RequestExecutor implements Executor {
+
+    //Set while an over-the-limit request is running so the handler knows to answer 503 instead of doing the work
+    private static final ThreadLocal<Boolean> shed = new ThreadLocal<>();
+
+    private final ExecutorService workers;
+    private final ThreadPoolExecutor overflow;
+    private final String mode;
+    private final int maxPending;
+    private final AtomicInteger pending = new AtomicInteger();  //Accepted and not finished yet
+    private final AtomicInteger active = new AtomicInteger();   //Currently running on a worker
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+
+    /**
+     * Creates the executor described by the SERVER_EXECUTOR ("pool" or "virtual"), SERVER_THREADS and SERVER_QUEUE settings.
+     * @return The configured RequestExecutor.
+     */
+    public static RequestExecutor fromConfig(){
+        String mode = ServerConfig.get("SERVER_EXECUTOR", "pool");
+        int threads = ServerConfig.getInt("SERVER_THREADS", 32);
+        int queue = ServerConfig.getInt("SERVER_QUEUE", 256);
+
+        if( "virtual".equals(mode) ){
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if(virtual != null){
+                //Virtual threads never wait in a queue, so the limit is on how many requests run at once
+                return new RequestExecutor(virtual, "virtual", threads + queue);
+            }
+            System.out.println("Virtual threads need JDK 21 or newer, falling back to a pool of " + threads + " threads");
+        }
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), namedThreads("request-"));
+        pool.allowCoreThreadTimeOut(true);
+        return new RequestExecutor(pool, "pool", threads + queue);
+    }
+
+    /**
+     * Creates a RequestExecutor around the given worker executor.
+     * @param workers The executor that runs accepted requests.
+     * @param mode A short name for the execution model, used in the status output.
+     * @param maxPending How many requests can be accepted (running plus waiting) before new ones get a 503.
+     */
+    public RequestExecutor(ExecutorService workers, String mode, int maxPending){
+        this.workers = workers;
+        this.mode = mode;
+        this.maxPending = maxPending;
+        //Only writes a tiny 503 per request. If even this backs up it rejects them: the dispatcher mustn't read a
+        //slow client's request itself, every other connection would wait on it
+        this.overflow = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1024),
+            namedThreads("request-overflow-"), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Runs the request on a worker if there is room, otherwise on the overflow thread marked to be shed.
+     * @param task The request to run, handed over by the HttpServer.
+     * @throws RejectedExecutionException If the overflow thread is backed up too, the HttpServer closes the connection.
+     */
+    public void execute(final Runnable task){
+
+        if( pending.incrementAndGet() > maxPending ){
+            pending.decrementAndGet();
+            rejected.incrementAndGet();
+            try{
+                overflow.execute(new Runnable(){
+                    public void run(){
+                        shed.set(Boolean.TRUE);
+                        try{
+                            task.run();
+                        }
+                        finally{
+                            shed.remove();
+                        }
+                    }
+                });
+            }
+            catch(RejectedExecutionException e){
+                //The 503 needs the request read first, which could stall on a slow client, so just hang up
+                refused.incrementAndGet();
+                throw e;
+            }
+            return;
+        }
+
+        workers.execute(new Runnable(){
+            public void run(){
+                active.incrementAndGet();
+                try{
+                    task.run();
+                }
+                finally{
+                    active.decrementAndGet();
+                    pending.decrementAndGet();
+                    completed.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns true if the request running on this thread was over the limit and should be answered with a 503.
+     * @return Whether the current request is being shed.
+     */
+    public static boolean isShed(){
+        return shed.get() != null;
+    }
+
+    /**
+     * Returns how many accepted requests are waiting for a worker.
+     * @return The queue depth.
+     */
+    public int getQueueDepth(){
+        return Math.max(0, pending.get() - active.get());
+    }
+
+    /**
+     * Returns how many requests are running right now.
+     * @return The number of active requests.
+     */
+    public int getActiveCount(){
+        return active.get();
+    }
+
+    /**
+     * Returns how many requests have been answered with a 503 because the server was full.
+     * @return The number of rejected requests.
+     */
+    public long getRejectedCount(){
+        return rejected.get();
+    }
+
+    /**
+     * Returns how many connections were closed unanswered because even the 503s were backed up.
+     * @return The number of refused connections.
+     */
+    public long getRefusedCount(){
+        return refused.get();
+    }
+
+    /**
+     * Returns how many accepted requests have finished.
+     * @return The number of completed requests.
+     */
+    public long getCompletedCount(){
+        return completed.get();
+    }
+
+    /**
+     * Returns the execution model, "pool" or "virtual".
+     * @return The mode.
+     */
+    public String getMode(){
+        return mode;
+    }
+
+    /**
+     * Returns how many requests can be accepted before new ones get a 503.
+     * @return The limit.
+     */
+    public int getMaxPending(){
+        return maxPending;
+    }
+
+    /**
+     * Stops taking new requests and waits briefly for running ones to finish.
+     */
+    public void shutdown(){
+        workers.shutdown();
+        overflow.shutdown();
+        try{
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor() so this still compiles and runs on older JDKs.
+     * @return A virtual thread per task executor, or null if the JDK doesn't have them.
+     */
+    private static ExecutorService newVirtualThreadExecutor(){
+        try{
+            return (ExecutorService) java.util.concurrent.Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch(ReflectiveOperationException e){
+            return null;
+        }
+    }
+
+    /**
+     * Creates daemon threads with the given name prefix so they show up clearly in thread dumps.
+     * @param prefix The start of each thread's name.
+     * @return The thread factory.
+     */
+    static ThreadFactory namedThreads(final String prefix){
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory(){
+            public Thread newThread(Runnable r){
+                Thread thread = new Thread(r, prefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,55 @@
+package com.example;
+
+/**
+ * Reads the server's tuning settings from the .env file (or the environment when there is no .env file),
+ * falling back to sensible defaults so the server starts with no configuration at all.
+ * @Date: 18-10-2026
+ */
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+
+public class ServerConfig {
+
+    private static final Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+
+    /**
+     * Returns the setting for the given key, or the default if it isn't set.
+     * @param key The name of the setting, e.g. USER_PRELOAD.
+     * @param defaultValue The value to use when the setting is missing.
+     * @return The configured value or the default.
+     */
+    public static String get(String key, String defaultValue){
+        String value = System.getProperty(key);
+        if(value == null){
+            value = dotenv.get(key);
+        }
+        return (value == null || value.trim().isEmpty()) ? defaultValue : value.trim();
+    }
+
+    /**
+     * Returns the integer setting for the given key, or the default if it isn't set or isn't a number.
+     * @param key The name of the setting.
+     * @param defaultValue The value to use when the setting is missing.
+     * @return The configured value or the default.
+     */
+    public static int getInt(String key, int defaultValue){
+        try{
+            return Integer.parseInt(get(key, String.valueOf(defaultValue)));
+        }
+        catch(NumberFormatException e){
+            System.out.println("Ignoring invalid value for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the true/false setting for the given key, or the default if it isn't set.
+     * @param key The name of the setting.
+     * @param defaultValue The value to use when the setting is missing.
+     * @return The configured value or the default.
+     */
+    public static boolean getBoolean(String key, boolean defaultValue){
+        return Boolean.parseBoolean(get(key, String.valueOf(defaultValue)));
+    }
+}
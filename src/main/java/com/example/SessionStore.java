@@ -0,0 +1,294 @@
+package com.example;
+
+/**
+ * Logged in sessions, each named by an opaque random token so knowing someone's username isn't enough to act as
+ * them. Looking a token up is a single hash map read, and a lookup is all it takes to keep a session alive: it ends
+ * once it hasn't been used for the idle timeout.
+ * Expiry uses a hashed timing wheel instead of a timer per session. The wheel has a slot per tick (a second), each
+ * session sits in the slot of the tick it would expire at, and one thread visits a slot per tick. A lookup only
+ * writes the session's last use time; when its slot comes round, a session that was used in the meantime is moved
+ * to the slot of its new deadline and one that wasn't is ended. So both a lookup and an expiry are constant time,
+ * however many sessions there are. When a user's last session ends the listener is told, which lets UserList drop
+ * the cached User so memory follows the number of active users. A user used without a session (by Username) holds
+ * a lease instead, which the wheel ends the same way, so those users are dropped too once they go quiet.
+ * @Date: 18-10-2026
+ */
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+
+public class SessionStore {
+
+    /**
+     * One logged in session, or a user's lease when the token is null.
+     */
+    private static class Session {
+
+        final String token;
+        final String username;
+        volatile long lastUsedNanos;
+
+        Session(String token, String username, long now){
+            this.token = token;
+            this.username = username;
+            this.lastUsedNanos = now;
+        }
+    }
+
+    private static final int TOKEN_BYTES = 32;
+    private static final int MAX_SLOTS = 1 << 16;
+
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Session> leases = new ConcurrentHashMap<>();     //By username
+    private final ConcurrentMap<String, Integer> sessionsPerUser = new ConcurrentHashMap<>();
+    private final Consumer<String> onLastSessionEnded;
+    private final long idleNanos;
+    private final long tickNanos;
+    private final long origin = System.nanoTime();
+    private final Queue<Session>[] wheel;
+    private final int mask;
+    private volatile long currentTick = 0;    //Only the ticker thread moves it
+    private final ScheduledExecutorService ticker;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    /**
+     * Creates the store and starts the thread that turns the wheel.
+     * @param idleMillis How long a session lasts without being used.
+     * @param tickMillis How often the wheel turns, sessions end up to this much later than their idle timeout.
+     * @param onLastSessionEnded Called with the username when a user's last session has ended.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SessionStore(long idleMillis, long tickMillis, Consumer<String> onLastSessionEnded){
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, idleMillis));
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        this.onLastSessionEnded = onLastSessionEnded;
+
+        //Enough slots that a deadline is usually less than one turn away, longer ones are just passed over once a turn
+        int slots = 1;
+        while( slots < MAX_SLOTS && slots <= idleNanos / tickNanos ){
+            slots <<= 1;
+        }
+        this.wheel = new Queue[slots];
+        for(int i = 0; i < slots; i++){
+            this.wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.mask = slots - 1;
+
+        this.ticker = Executors.newSingleThreadScheduledExecutor( RequestExecutor.namedThreads("session-wheel-") );
+        this.ticker.scheduleAtFixedRate(new Runnable(){
+            public void run(){
+                try{
+                    tick();
+                }
+                catch(RuntimeException e){
+                    //A failing listener mustn't stop the wheel
+                    System.out.println("Session expiry failed: " + e);
+                }
+            }
+        }, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates a store from the SESSION_IDLE_MINUTES setting, turning once a second.
+     * @param onLastSessionEnded Called with the username when a user's last session has ended.
+     * @return The configured SessionStore.
+     */
+    public static SessionStore fromConfig(Consumer<String> onLastSessionEnded){
+        return new SessionStore( TimeUnit.MINUTES.toMillis(ServerConfig.getInt("SESSION_IDLE_MINUTES", 30)),
+            1000, onLastSessionEnded );
+    }
+
+    /**
+     * Starts a session for a user who has just logged in.
+     * @param username The user.
+     * @return The session's token, 43 url-safe characters.
+     */
+    public String create(String username){
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+        Session session = new Session(token, username, System.nanoTime());
+        sessionsPerUser.merge(username, 1, new BiFunction<Integer, Integer, Integer>(){
+            public Integer apply(Integer count, Integer one){
+                return count + one;
+            }
+        });
+        sessions.put(token, session);
+        schedule(session, session.lastUsedNanos + idleNanos);
+        created.incrementAndGet();
+        return token;
+    }
+
+    /**
+     * Counts as using a user who has no session, e.g. one named by the Username parameter. The user is kept until
+     * neither their lease nor any session has been used for the idle timeout.
+     * @param username The user.
+     */
+    public void touch(String username){
+        long now = System.nanoTime();
+        Session lease = leases.get(username);
+        if(lease != null){
+            lease.lastUsedNanos = now;
+            return;
+        }
+        lease = new Session(null, username, now);
+        if(leases.putIfAbsent(username, lease) != null){
+            return;     //Another request just took it out
+        }
+        sessionsPerUser.merge(username, 1, new BiFunction<Integer, Integer, Integer>(){
+            public Integer apply(Integer count, Integer one){
+                return count + one;
+            }
+        });
+        schedule(lease, now + idleNanos);
+    }
+
+    /**
+     * Returns whose session a token belongs to, and counts as using it.
+     * @param token The token, may be null.
+     * @return The username, or null if the token is unknown or has expired.
+     */
+    public String resolve(String token){
+        Session session = token == null ? null : sessions.get(token);
+        if(session == null){
+            return null;
+        }
+        long now = System.nanoTime();
+        if( now - session.lastUsedNanos >= idleNanos ){
+            //Expired but its slot hasn't come round yet
+            end(session);
+            expired.incrementAndGet();
+            return null;
+        }
+        session.lastUsedNanos = now;
+        return session.username;
+    }
+
+    /**
+     * Ends a session, e.g. on logout.
+     * @param token The session's token.
+     * @return True if there was such a session.
+     */
+    public boolean end(String token){
+        Session session = token == null ? null : sessions.get(token);
+        return session != null && end(session);
+    }
+
+    /**
+     * Returns how many sessions are active.
+     * @return The number of sessions.
+     */
+    public int getSessionCount(){
+        return sessions.size();
+    }
+
+    /**
+     * Returns how many users are kept by a lease because they were used without a session.
+     * @return The number of leases.
+     */
+    public int getLeaseCount(){
+        return leases.size();
+    }
+
+    /**
+     * Returns how many users have at least one active session or lease.
+     * @return The number of users.
+     */
+    public int getUserCount(){
+        return sessionsPerUser.size();
+    }
+
+    /**
+     * Returns how many sessions have been started.
+     * @return The number of sessions created.
+     */
+    public long getCreatedCount(){
+        return created.get();
+    }
+
+    /**
+     * Returns how many sessions ended because they weren't used.
+     * @return The number of expired sessions.
+     */
+    public long getExpiredCount(){
+        return expired.get();
+    }
+
+    /**
+     * Stops the wheel, sessions no longer expire afterwards.
+     */
+    public void shutdown(){
+        ticker.shutdownNow();
+    }
+
+    private void schedule(Session session, long deadlineNanos){
+        //Never the slot being visited right now, or the session would wait a whole turn
+        long tick = Math.max( (deadlineNanos - origin + tickNanos - 1) / tickNanos, currentTick + 1 );
+        wheel[(int) (tick & mask)].add(session);
+    }
+
+    private void tick(){
+        long tick = currentTick + 1;
+        currentTick = tick;
+        long now = System.nanoTime();
+        Queue<Session> slot = wheel[(int) (tick & mask)];
+
+        //Only what was there when the visit started, sessions moved back into this slot wait for its next turn
+        for(int remaining = slot.size(); remaining > 0; remaining--){
+            Session session = slot.poll();
+            if(session == null){
+                break;
+            }
+            if(current(session) != session){
+                continue;   //Already ended
+            }
+            long deadline = session.lastUsedNanos + idleNanos;
+            if(deadline - now <= 0){
+                if( end(session) && session.token != null ){
+                    expired.incrementAndGet();
+                }
+            }
+            else{
+                schedule(session, deadline);
+            }
+        }
+    }
+
+    private Session current(Session session){
+        return session.token == null ? leases.get(session.username) : sessions.get(session.token);
+    }
+
+    private boolean end(Session session){
+        boolean removed = session.token == null ? leases.remove(session.username, session)
+            : sessions.remove(session.token, session);
+        if( !removed ){
+            return false;
+        }
+        sessionsPerUser.computeIfPresent(session.username, new BiFunction<String, Integer, Integer>(){
+            public Integer apply(String username, Integer count){
+                if(count > 1){
+                    return count - 1;
+                }
+                //Inside the update so a login racing this one either counts before it or starts a fresh count after
+                onLastSessionEnded.accept(username);
+                return null;
+            }
+        });
+        return true;
+    }
+}
@@ -0,0 +1,30 @@
+package com.example;
+
+/**
+ * Everything the server keeps: users, the leaderboard, task completions, the forum, classes and images. The server
+ * only talks to storage through these repositories, so the backend is chosen once at startup: MongoStorage for
+ * production, or MemoryStorage to run the server, tests and benchmarks without a database.
+ * STORAGE_BACKEND picks between them ("mongo" or "memory").
+ * @Date: 18-10-2026
+ */
+
+
+public interface Storage {
+
+    UserRepository users();
+
+    LeaderboardRepository leaderboard();
+
+    TaskRepository tasks();
+
+    ForumRepository forum();
+
+    ClassRepository classes();
+
+    ImageRepository images();
+
+    /**
+     * Creates the indexes lookups rely on. Safe to call on every startup.
+     */
+    void ensureIndexes();
+}
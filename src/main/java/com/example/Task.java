@@ -5,4 +5,10 @@ package com.example;
 public interface Task {
     
     public void completeTask();
+
+    /**
+     * Returns the name of the field in the Leaderboard collection that completing this task marks as done.
+     * @return The leaderboard field, e.g. "Dorm"
+     */
+    public String getLeaderboardField();
 }
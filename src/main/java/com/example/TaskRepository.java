@@ -0,0 +1,43 @@
+package com.example;
+
+/**
+ * A log of completed tasks per kind of task, and how far the leaderboard has read each log. Tasks are named by their
+ * leaderboard field ("Dorm", "Class", "Facilities", "Faculty", "Food").
+ * @Date: 18-10-2026
+ */
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+
+public interface TaskRepository {
+
+    /**
+     * Records a completed task.
+     * @param task The task's leaderboard field.
+     * @param completion The document, with "Username" and "Display Name". An _id is assigned if it has none.
+     */
+    void insert(String task, Document completion);
+
+    /**
+     * Returns the completions of a task recorded after the given one, oldest first.
+     * @param task The task's leaderboard field.
+     * @param after The _id of the last completion already read, or null for all of them.
+     * @return The completions, in _id order.
+     */
+    Iterable<Document> findAfter(String task, ObjectId after);
+
+    /**
+     * Returns how far the leaderboard has read a task's completions.
+     * @param task The task's leaderboard field.
+     * @return The _id of the last completion read, or null if none have been.
+     */
+    ObjectId getProgress(String task);
+
+    /**
+     * Saves how far the leaderboard has read a task's completions.
+     * @param task The task's leaderboard field.
+     * @param lastId The _id of the last completion read.
+     */
+    void setProgress(String task, ObjectId lastId);
+}
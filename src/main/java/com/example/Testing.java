@@ -20,6 +20,7 @@ import javax.script.ScriptException;
 import io.github.cdimascio.dotenv.Dotenv;
 
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoClientURI;
 
 
@@ -28,17 +29,27 @@ public class Testing {
   
     public static void main(String[] args) throws ScriptException, IOException{
 
-        Dotenv dotenv = Dotenv.load();
-        String mongodbUrl = dotenv.get("MONGODB_URL");
-
-        MongoClientURI uri = new MongoClientURI(mongodbUrl);
-        MongoClient mongoClient = new MongoClient(uri);
+        //STORAGE_BACKEND=memory runs without a database, nothing is kept after the server stops
+        Storage storage;
+        if( "memory".equalsIgnoreCase( ServerConfig.get("STORAGE_BACKEND", "mongo") ) ){
+            storage = new MemoryStorage();
+        }
+        else{
+            Dotenv dotenv = Dotenv.load();
+            String mongodbUrl = dotenv.get("MONGODB_URL");
+
+            //Every command the driver sends is timed for /Metrics
+            MongoClientURI uri = new MongoClientURI(mongodbUrl,
+                MongoClientOptions.builder().addCommandListener(Metrics.mongoCommandListener()));
+            MongoClient mongoClient = new MongoClient(uri);
+            storage = new MongoStorage(mongoClient);
+        }
 
         //System.out.println(mongoClient);
         //System.exit(1);
 
         //This starts the webserver
-        Webserver server = new Webserver(80, mongoClient);
+        Webserver server = new Webserver(80, storage);
 
     }
 
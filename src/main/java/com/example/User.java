@@ -9,11 +9,14 @@ package com.example;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
-
-import com.mongodb.MongoClient;
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.model.Updates;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
@@ -22,7 +25,8 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 import org.bson.Document;
-import org.bson.conversions.Bson;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
@@ -37,13 +41,39 @@ import java.awt.*;
  * This is the class user where all of the return and get functions are stored inside of it 
  */
 public class User {
+
+    //Field names accepted by getProfile, named after the Return* endpoints
+    public static final List<String> PROFILE_FIELDS = Collections.unmodifiableList( Arrays.asList(
+        "Username", "DisplayName", "PFP", "Interests", "AboutMe", "Food", "Dorm", "Classes", "Facilities", "Faculty",
+        "ContactInfo", "CatalystNotes", "PhotoGallery", "PermissionLevel") );
+
+    //Fields updateProfile can change, mapped to their names in the Users collection
+    public static final Map<String, String> EDITABLE_PROFILE_FIELDS;
+    static{
+        Map<String, String> editable = new LinkedHashMap<>();
+        editable.put("DisplayName", "Display Name");
+        editable.put("AboutMe", "About Me");
+        editable.put("Interests", "Interests");
+        editable.put("ContactInfo", "Contact Information");
+        editable.put("CatalystNotes", "Catalyst Notes");
+        EDITABLE_PROFILE_FIELDS = Collections.unmodifiableMap(editable);
+    }
+
+    //Everything except the image hashes, those are only sent when asked for by name
+    public static final List<String> DEFAULT_PROFILE_FIELDS = Collections.unmodifiableList( Arrays.asList(
+        "Username", "DisplayName", "Interests", "AboutMe", "Food", "Dorm", "Classes", "Facilities", "Faculty",
+        "ContactInfo", "CatalystNotes", "PermissionLevel") );
     
     private String displayName, username, password, interests, foodSelections, facultySelections, facilitiesSlection, dormSelection, 
-    aboutMe, pfpString, permissionLevel, contactInformation, catalystNotes, classes;    //All information stored like this
+    aboutMe, pfpString, permissionLevel, contactInformation, catalystNotes, classes;    //All information stored like this, changed only under the User's lock
     private BufferedImage pfp;  //Can displayPFP for testing
     private ArrayList<String> photoGallery = new ArrayList<>(); //Stores Photos
-    private GetDbCollection mongoDB = new GetDbCollection();    //This is to access mongoDB collections 
-    private MongoClient mongoClient = null;
+    private Storage storage = null;     //Where the user is saved, its images() keep the PFP and photo gallery bytes
+
+    //Every loaded User gets its own id so a version from an earlier load or server run can't match this one
+    private static final AtomicLong INSTANCE_IDS = new AtomicLong(System.currentTimeMillis());
+    private final long instanceId = INSTANCE_IDS.incrementAndGet();
+    private final AtomicLong version = new AtomicLong();    //Bumped by every setter, used for the Return* ETags
 
 
     /**
@@ -52,9 +82,9 @@ public class User {
      * @param username
      * @param password
      */
-    public User(String displayName, String username, String password, String contactInformation, MongoClient mongoClient){
+    public User(String displayName, String username, String password, String contactInformation, Storage storage){
 
-        this.mongoClient = mongoClient;
+        this.storage = storage;
         this.displayName = displayName;
         this.username = username;
         this.password = password;
@@ -62,22 +92,33 @@ public class User {
         this.permissionLevel = "1";
 
         saveInformation();  //Only saves information when User is initialized
-        MongoCollection<Document> leaderboard = mongoDB.returnCollection("Tasks", "Leaderboard", mongoClient);
-        Document document = new Document("Points", "0").append("Display Name", this.displayName).append("Username", this.username)
+        Document document = new Document("Points", 0).append("Display Name", this.displayName).append("Username", this.username)
         .append("Dorm", "False").append("Class", "False").append("Facilities", "False")
         .append("Faculty", "False").append("Food", "False");
-        leaderboard.insertOne(document);
+        storage.leaderboard().insert(document);
     }
 
 
    /**
     * Constructor for when user is logging in and User class is being updated with the information inside of MongoDB
-    * This shouldn't be needed anymore with the recent change that has arisen
     * @param username
-    * @param password
+    * @param storage
     */
-    public User(String username, String password){
+    public User(String username, Storage storage){
+        this.storage = storage;
         accessUserInformation(username);
+        migrateImages();
+    }
+
+    /**
+     * Constructor for a user whose document has already been read from the Users collection, so no extra read is needed
+     * @param doc
+     * @param storage
+     */
+    public User(Document doc, Storage storage){
+        this.storage = storage;
+        loadInformation(doc);
+        migrateImages();
     }
 
 
@@ -85,138 +126,158 @@ public class User {
      * Updates display name by going to MongoDB UserDatabase db, then to Users Collection
      * @param name
      */
-    public void updateDisplayName(String name){
+    public synchronized void updateDisplayName(String name){
         this.displayName = name;
-        mongoDB.updateDatabase("UserDatabase", "Users", this.username, "Display Name", this.displayName, mongoClient);
+        storage.users().update(this.username, "Display Name", this.displayName);
+        version.incrementAndGet();
     }
 
     /**
      * Updates password by going to MongoDB UserDatabase db, then to Users Collection
-     * @param password
+     * @param password The encoded hash from PasswordHasher, never the password itself
      */
-    public void updatePassword(String password){
+    public synchronized void updatePassword(String password){
+        //Stored first, even with write-behind, so a failed write leaves the old password everywhere
+        storage.users().update(this.username, "Password", password);
         this.password = password;
-        mongoDB.updateDatabase("UserDatabase", "Users", this.username, "Password", this.password, mongoClient);
+        version.incrementAndGet();
     }
 
     /**
-     * Updates PFP by going to MongoDB UserDatabase db, then to Users Collection
-     * @param fileName
+     * Stores the image in the ImageRepository and saves its hash as the PFP in MongoDB UserDatabase db, Users Collection
+     * @param fileName The uploaded image, base64 or a data: URL
      */
     public void uploadPFP(String fileName){
-        this.pfpString = fileName;
-        mongoDB.updateDatabase("UserDatabase", "Users", this.username, "PFP", this.pfpString, mongoClient);
+        uploadPFP( Images.decodeUpload(fileName) );
+    }
+
+    /**
+     * Stores the image bytes in the ImageRepository and saves their hash as the PFP in MongoDB UserDatabase db, Users Collection
+     * @param image The image file as uploaded
+     */
+    public synchronized void uploadPFP(byte[] image){
+        this.pfpString = images().store(image);
+        storage.users().update(this.username, "PFP", this.pfpString);
+        version.incrementAndGet();
     }
 
     /**
      * Updates Contact Information by going to MongoDB UserDatabase db, then to Users Collection
      * @param contactInfo
      */
-    public void updateContactInfo(String contactInfo){
+    public synchronized void updateContactInfo(String contactInfo){
         this.contactInformation = contactInfo;
-        mongoDB.updateDatabase("UserDatabase", "Users", this.username, "Contact Information", this.contactInformation, mongoClient);
+        storage.users().update(this.username, "Contact Information", this.contactInformation);
+        version.incrementAndGet();
     }
 
     /**
-     * Adds an image to Photo Gallery by going to MongoDB UserDatabase db, then to Users Collection
-     * @param fileName
+     * Stores the image in the ImageRepository and adds its hash to Photo Gallery in MongoDB UserDatabase db, Users Collection
+     * @param fileName The uploaded image, base64 or a data: URL
      */
     public void addImgToPhotos(String fileName){
+        addImgToPhotos( Images.decodeUpload(fileName) );
+    }
 
-        photoGallery.add( fileName );
-
-        MongoCollection<Document> collection = mongoDB.returnCollection("UserDatabase", "Users", mongoClient);
+    /**
+     * Stores the image bytes in the ImageRepository and adds their hash to Photo Gallery in MongoDB UserDatabase db, Users Collection
+     * @param image The image file as uploaded
+     */
+    public synchronized void addImgToPhotos(byte[] image){
 
-        for(Document doc : collection.find() ){
-            if( username.compareTo( doc.getString("Username") ) == 0 ){
-                ArrayList<String> toUpdate = (ArrayList<String>) doc.get("Photo Gallery");
-                Document query = new Document("Photo Gallery", toUpdate);
-                Bson updates = Updates.combine(Updates.set("Photo Gallery", photoGallery) );
-                collection.updateOne(query, updates);
-                break;
-            }
-        }
+        photoGallery.add( images().store(image) );
+        storage.users().update(this.username, "Photo Gallery", photoGallery);
+        version.incrementAndGet();
     }
 
     /**
      * Updates interests by going to MongoDB UserDatabase db, then to Users Collection
      * @param interests
      */
-    public void updateInterests(String interests){
+    public synchronized void updateInterests(String interests){
         this.interests = interests;
-        mongoDB.updateDatabase("UserDatabase", "Users", this.username, "Interests", this.interests, mongoClient);
+        storage.users().update(this.username, "Interests", this.interests);
+        version.incrementAndGet();
     }
 
     /**
      * Updates catalyst notes by going to MongoDB UserDatabase db, then to Users Collection
      * @param catalystNotes
      */
-    public void updateCatalystNote(String catalystNotes){
+    public synchronized void updateCatalystNote(String catalystNotes){
         this.catalystNotes = catalystNotes;
-        mongoDB.updateDatabase("UserDatabase", "Users", this.username, "Catalyst Notes", this.catalystNotes, mongoClient);
+        storage.users().update(this.username, "Catalyst Notes", this.catalystNotes);
+        version.incrementAndGet();
     }
 
     /**
      * Updates about me by going to MongoDB UserDatabase db, then to Users Collection
      * @param aboutMe
      */
-    public void updateAboutMe(String aboutMe){
+    public synchronized void updateAboutMe(String aboutMe){
         this.aboutMe = aboutMe;
-        mongoDB.updateDatabase("UserDatabase", "Users", this.username, "About Me", this.aboutMe, mongoClient);
+        storage.users().update(this.username, "About Me", this.aboutMe);
+        version.incrementAndGet();
     }
 
     /**
      * Sets food selection for user and HAM that'll be sent to Tasks database.
      * @param foodSelection
      */
-    public void setFoodSelection(String foodSelection){
+    public synchronized void setFoodSelection(String foodSelection){
         this.foodSelections = foodSelection;
-        mongoDB.updateDatabase("UserDatabase", "Users", this.username, "Food Selection", this.foodSelections, mongoClient);
+        storage.users().update(this.username, "Food Selection", this.foodSelections);
+        version.incrementAndGet();
     }
 
     /**
      * Sets faculty selection for user and Faculty that'll be sent to Tasks database.
      * @param facultySelection
      */
-    public void setFacultySelection(String facultySelection){
+    public synchronized void setFacultySelection(String facultySelection){
         this.facultySelections = facultySelection;
-        mongoDB.updateDatabase("UserDatabase", "Users", this.username, "Faculty Selection", this.facultySelections, this.mongoClient);
+        storage.users().update(this.username, "Faculty Selection", this.facultySelections);
+        version.incrementAndGet();
     }
 
     /**
      * Sets Facilities selection for user and Facilities that'll be sent to Tasks database.
      * @param facilitiesSelection
      */
-    public void setFacilitiesSelection(String facilitiesSelection){
+    public synchronized void setFacilitiesSelection(String facilitiesSelection){
         this.facilitiesSlection = facilitiesSelection;
-        mongoDB.updateDatabase("UserDatabase", "Users", this.username, "Facilities Selection", this.facilitiesSlection, this.mongoClient);
+        storage.users().update(this.username, "Facilities Selection", this.facilitiesSlection);
+        version.incrementAndGet();
     }
 
     /**
      * Sets dorm selection for user and Dorm that'll be sent to Tasks database.
      * @param dormSelection
      */
-    public void setDormSelection(String dormSelection){
+    public synchronized void setDormSelection(String dormSelection){
         this.dormSelection = dormSelection;
-        mongoDB.updateDatabase("UserDatabase", "Users", this.username, "Dorm Selection", this.dormSelection, this.mongoClient);
+        storage.users().update(this.username, "Dorm Selection", this.dormSelection);
+        version.incrementAndGet();
     }
 
     /**
      * Sets classes for user and Classes that'll be sent to Tasks database.
      * @param selectedClass
      */
-    public void setClasses(String selectedClass){
+    public synchronized void setClasses(String selectedClass){
         this.classes = selectedClass;
-        mongoDB.updateDatabase("UserDatabase", "Users", this.username, "Class selection", this.classes, this.mongoClient);
+        storage.users().update(this.username, "Class selection", this.classes);
+        version.incrementAndGet();
     }
 
     /**
      * Updates permission level so user can see different things based on it 
      * @param permissionLevel
      */
-    public void updatePermissionLevel(String permissionLevel){
+    public synchronized void updatePermissionLevel(String permissionLevel){
         this.permissionLevel = permissionLevel;
-        mongoDB.updateDatabase("UserDatabase", "Users", this.username, "Permission Level", this.permissionLevel, this.mongoClient);
+        storage.users().update(this.username, "Permission Level", this.permissionLevel);
+        version.incrementAndGet();
     }
 
     /**
@@ -244,7 +305,7 @@ public class User {
     }
 
     /**
-     * Returns pfp
+     * Returns the pfp's ImageRepository hash
      * @return
      */
     public String getPFP(){
@@ -316,11 +377,22 @@ public class User {
     }
 
     /**
-     * Returns photo gallery
+     * Returns a strong ETag for this user's current information. It changes whenever a setter runs, so it has to be
+     * read before the fields it describes. Setters write the field before they bump the version, so a response can
+     * be newer than its tag but never older: at worst the client's next request misses and gets the data again,
+     * it never keeps stale data under a current tag.
+     * @return The quoted ETag
+     */
+    public String getETag(){
+        return "\"" + Long.toString(instanceId, 36) + "." + version.get() + "\"";
+    }
+
+    /**
+     * Returns the ImageRepository hashes of the photo gallery
      * @return
      */
-    public ArrayList<String> getPhotoGallery(){
-        return photoGallery;
+    public synchronized ArrayList<String> getPhotoGallery(){
+        return new ArrayList<>(photoGallery);
     }
 
     /**
@@ -332,6 +404,84 @@ public class User {
     }
 
 
+    /**
+     * Updates any subset of the EDITABLE_PROFILE_FIELDS with a single write to the Users collection. The new values are
+     * only applied here once the write succeeded, and under the same lock as getProfile so a profile is never read
+     * with half of an edit applied.
+     * @param changes New values keyed by names from EDITABLE_PROFILE_FIELDS, other names are skipped
+     * @return The names of the fields that were updated
+     */
+    public synchronized List<String> updateProfile(Map<String, String> changes){
+
+        Map<String, Object> dbFields = new LinkedHashMap<>();
+        List<String> updated = new ArrayList<>();
+
+        for(Map.Entry<String, String> change : changes.entrySet()){
+            String dbField = EDITABLE_PROFILE_FIELDS.get(change.getKey());
+            if(dbField != null && change.getValue() != null){
+                dbFields.put(dbField, change.getValue());
+                updated.add(change.getKey());
+            }
+        }
+
+        if(updated.isEmpty()){
+            return updated;
+        }
+
+        storage.users().update(this.username, dbFields);
+
+        for(String field : updated){
+            String value = changes.get(field);
+            switch(field){
+                case "DisplayName": this.displayName = value; break;
+                case "AboutMe": this.aboutMe = value; break;
+                case "Interests": this.interests = value; break;
+                case "ContactInfo": this.contactInformation = value; break;
+                case "CatalystNotes": this.catalystNotes = value; break;
+            }
+        }
+        version.incrementAndGet();
+
+        return updated;
+    }
+
+    /**
+     * Returns the requested profile fields as one JSON object, so a profile page only needs one request.
+     * Fields that aren't set are sent as null and unknown field names are skipped.
+     * @param fields Names from PROFILE_FIELDS
+     * @return JSON object keyed by field name
+     */
+    public synchronized JSONObject getProfile(Collection<String> fields){
+
+        JSONObject profile = new JSONObject();
+
+        for(String name : fields){
+            String field = name.trim();
+            Object value;
+            switch(field){
+                case "Username": value = this.username; break;
+                case "DisplayName": value = this.displayName; break;
+                case "PFP": value = this.pfpString; break;
+                case "Interests": value = this.interests; break;
+                case "AboutMe": value = this.aboutMe; break;
+                case "Food": value = this.foodSelections; break;
+                case "Dorm": value = this.dormSelection; break;
+                case "Classes": value = this.classes; break;
+                case "Facilities": value = this.facilitiesSlection; break;
+                case "Faculty": value = this.facultySelections; break;
+                case "ContactInfo": value = this.contactInformation; break;
+                case "CatalystNotes": value = this.catalystNotes; break;
+                case "PhotoGallery": value = new JSONArray(this.photoGallery); break;
+                case "PermissionLevel": value = this.permissionLevel; break;
+                default: continue;
+            }
+            profile.put(field, value == null ? JSONObject.NULL : value);
+        }
+
+        return profile;
+    }
+
+
     /**
      * Creates a BufferedImage given a fileLocation
      * @param fileName
@@ -375,29 +525,39 @@ public class User {
 
 
     /**
-     * This takes in an image, and then it goes through encoding the image to 64string, and when it 
-     * converts the image to 64string, then it saves it to "PFP" for database.
+     * This takes in an image, and then it goes through encoding the image to 64string. The PNG bytes are kept
+     * in the ImageRepository and their hash is saved to "PFP" for database.
      * @param image
      */
     public String imageToBase64String(BufferedImage image){
 
-        String base64String = null;
+        byte[] png = toPng(image);
+        String base64String = Base64.getEncoder().encodeToString(png);
 
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        synchronized(this){
+            this.pfpString = images().store(png);
+            storage.users().update(this.username, "PFP", this.pfpString);
+            version.incrementAndGet();
+        }
+
+        return base64String;
+
+    }
 
+    /**
+     * Encodes the image as a PNG file.
+     * @param image
+     * @return The PNG bytes
+     */
+    static byte[] toPng(BufferedImage image){
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
         try{
             ImageIO.write(image, "png", os);
-            base64String = Base64.getEncoder().encodeToString(os.toByteArray());
         }
         catch (IOException e){
             throw new UncheckedIOException(e);
         }
-
-
-        mongoDB.updateDatabase("UserDatabase", "Users", this.username, "PFP", base64String, this.mongoClient);
-
-        return base64String;
-
+        return os.toByteArray();
     }
 
     /**
@@ -419,8 +579,6 @@ public class User {
      */
     public void saveInformation(){
 
-        MongoCollection<Document> userCollection = mongoDB.returnCollection("UserDatabase", "Users", this.mongoClient);
-
         //Creating new document to insert into the Users collection, so leaderboard can grab the information later
         Document document = new Document("Username", username).append("Password", password).append("Display Name", displayName)
         .append("Contact Information", this.contactInformation).append("Interests", interests).append("Food Selection", foodSelections)
@@ -428,7 +586,7 @@ public class User {
         .append("About Me", aboutMe).append("PFP", pfpString).append("Permission Level", this.permissionLevel)
         .append("Photo Gallery", photoGallery).append("Catalyst Notes", catalystNotes);
 
-        userCollection.insertOne(document);
+        storage.users().insert(document);
 
     }
 
@@ -436,35 +594,76 @@ public class User {
      * This access's the information to the user that was saved in the db, and then sets the values from the database,
      * to the variables that were made in this class.
      */
-    public void accessUserInformation(String inputUsername){
+    public synchronized void accessUserInformation(String inputUsername){
         
-        MongoCollection<Document> userCollection = mongoDB.returnCollection("UserDatabase", "Users", this.mongoClient);
-
-        for(Document doc : userCollection.find() ){
-            if( inputUsername.compareTo( doc.getString("Username") ) == 0){
-                this.displayName = doc.getString("Display Name");
-                this.username = doc.getString("Username");
-                this.password = doc.getString("Password");
-                this.contactInformation = doc.getString("Contact Information");
-                this.interests = doc.getString("Interests");
-                this.classes = doc.getString("Classes");
-                this.foodSelections = doc.getString("Food Selection");
-                this.facultySelections = doc.getString("Faculty Selection");
-                this.facilitiesSlection = doc.getString("Facilities Selection");
-                this.dormSelection = doc.getString("Dorm Selection");
-                this.aboutMe = doc.getString("About Me");
-                this.permissionLevel = doc.getString("Permission Level");
-                this.pfpString = doc.getString("PFP");
-                this.catalystNotes = doc.getString("Catalyst Notes");
-                Object photos = doc.get("Photo Gallery");
-                this.photoGallery = (ArrayList<String>) photos;
-
-                
+        Document doc = storage.users().find(inputUsername);
+        if(doc != null){
+            loadInformation(doc);
+        }
+
+    }
+
+    /**
+     * Sets the values in this class from a document of the Users collection.
+     * @param doc
+     */
+    private void loadInformation(Document doc){
+        this.displayName = doc.getString("Display Name");
+        this.username = doc.getString("Username");
+        this.password = doc.getString("Password");
+        this.contactInformation = doc.getString("Contact Information");
+        this.interests = doc.getString("Interests");
+        //setClasses saves to "Class selection", older documents used "Classes"
+        this.classes = doc.getString("Class selection") != null ? doc.getString("Class selection") : doc.getString("Classes");
+        this.foodSelections = doc.getString("Food Selection");
+        this.facultySelections = doc.getString("Faculty Selection");
+        this.facilitiesSlection = doc.getString("Facilities Selection");
+        this.dormSelection = doc.getString("Dorm Selection");
+        this.aboutMe = doc.getString("About Me");
+        this.permissionLevel = doc.getString("Permission Level");
+        this.pfpString = doc.getString("PFP");
+        this.catalystNotes = doc.getString("Catalyst Notes");
+        Object photos = doc.get("Photo Gallery");
+        if(photos != null){
+            this.photoGallery = new ArrayList<>( (List<String>) photos );
+        }
+    }
+
+    /**
+     * Moves images that older documents kept inline as base64 into the ImageRepository, leaving only their hashes in the
+     * Users collection so later reads of this user don't carry the image bytes.
+     */
+    private synchronized void migrateImages(){
+        Map<String, Object> moved = new LinkedHashMap<>();
+
+        if( this.pfpString != null && !this.pfpString.isEmpty() && !Images.isReference(this.pfpString) ){
+            this.pfpString = images().store( Images.decodeUpload(this.pfpString) );
+            moved.put("PFP", this.pfpString);
+        }
+
+        boolean galleryMoved = false;
+        for(int i = 0; i < photoGallery.size(); i++){
+            String photo = photoGallery.get(i);
+            if( photo != null && !Images.isReference(photo) ){
+                photoGallery.set(i, images().store( Images.decodeUpload(photo) ));
+                galleryMoved = true;
             }
-            
+        }
+        if(galleryMoved){
+            moved.put("Photo Gallery", photoGallery);
         }
 
+        if( !moved.isEmpty() && this.username != null ){
+            storage.users().update(this.username, moved);
+        }
+    }
 
+    /**
+     * Returns the ImageRepository the PFP and photo gallery bytes are kept in.
+     * @return The ImageRepository of this user's storage
+     */
+    private ImageRepository images(){
+        return storage.images();
     }
 
 
@@ -8,9 +8,13 @@ package com.example;
  */
 
 import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
 import org.bson.Document;
-import com.mongodb.MongoClient;
-import com.mongodb.client.MongoCollection;
 
 /**
  * Manages the collection of users, supporting operations such as authentication, registration, and information retrieval.
@@ -18,39 +22,84 @@ import com.mongodb.client.MongoCollection;
  */
 public class UserList {
     
-    private MongoClient mongoClient = null;
-    private ArrayList<User> userArray = new ArrayList<>();
-    private GetDbCollection mongoDB = new GetDbCollection();
+    private Storage storage = null;
+    private ConcurrentMap<String, User> users = new ConcurrentHashMap<>(); //Keyed by username, safe for concurrent handlers
+    private Set<String> knownUsernames = null; //Every username in the database, null when startup skipped reading them
     private HAM ham;
     private Facilities facilities;
     private Faculty faculty;
     private Classes classes;
     private Dorm dorm;
-    private Forums forum = new Forums( this.mongoClient );
+    private Forums forum;
+    private ImagePipeline imagePipeline;
+    private PasswordHasher passwords = PasswordHasher.fromConfig(); //Hashes and checks passwords on its own bounded pool
+    private SessionStore sessions; //Logged in sessions by token and leases of sessionless users, ending a user's last one drops the cached User
+    private UserWriteBuffer writeBuffer = null; //Coalesces profile changes into one write per user, null when every change is written right away
+
 
+    /**
+     * Constructs a UserList using the startup mode from the USER_PRELOAD setting (defaults to "names").
+     * @param storage The storage users are kept in.
+     */
+    public UserList( Storage storage ){
+        this( storage, ServerConfig.get("USER_PRELOAD", "names") );
+    }
 
     /**
-     * Constructs a UserList, initializing it with a MongoDB client and populating the user list from the database.
-     * @param mongoClient The MongoClient for database interaction.
+     * Constructs a UserList, initializing it with the storage users are kept in. Users are loaded from the database lazily the first time
+     * they are accessed, the preload mode only decides how much is read up front:
+     * "full" reads every user document once and builds all the Users, "names" reads only the usernames so lookups of
+     * unknown users don't have to go to the database, and "none" reads nothing. Cached Users are dropped once they've
+     * been idle for SESSION_IDLE_MINUTES, including the ones "full" loaded, so it only warms the cache.
+     * Setting USER_WRITE_BEHIND to true buffers profile changes (see UserWriteBuffer) for USER_WRITE_LINGER_MS.
+     * @param storage The storage users are kept in.
+     * @param preload The startup mode, "full", "names" or "none".
      */
-    public UserList( MongoClient mongoClient ){
+    public UserList( Storage storage, String preload ){
 
-        this.mongoClient = mongoClient;
-        MongoCollection<Document> userCollection = mongoDB.returnCollection("UserDatabase", "Users", mongoClient);
-        for(Document doc : userCollection.find() ){
-            String username = doc.getString("Username");
-            String pw = doc.getString("Password");
-            userArray.add( new User(username, pw) );
+        if( ServerConfig.getBoolean("USER_WRITE_BEHIND", false) ){
+            this.writeBuffer = new UserWriteBuffer( storage.users(), ServerConfig.getInt("USER_WRITE_LINGER_MS", 100),
+                ServerConfig.getInt("USER_WRITE_MAX_RETRIES", 5) );
+            storage = this.writeBuffer.wrap(storage);
+        }
+        this.storage = storage;
+        this.sessions = SessionStore.fromConfig(new Consumer<String>(){
+            public void accept(String username){
+                users.remove(username);
+            }
+        });
+        this.forum = new Forums( storage.forum() );
+        this.imagePipeline = new ImagePipeline( storage.images() );
+        long start = System.nanoTime();
+
+        if( !"none".equals(preload) ){
+            this.knownUsernames = ConcurrentHashMap.newKeySet();
+            if( "full".equals(preload) ){
+                for(Document doc : storage.users().findAll() ){
+                    User user = addUser( new User(doc, storage) );
+                    knownUsernames.add( user.getUsername() );
+                    sessions.touch( user.getUsername() );
+                }
+            }
+            else{
+                for(String username : storage.users().findAllUsernames() ){
+                    knownUsernames.add( username );
+                }
+            }
         }
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+        System.out.println("UserList startup (" + preload + "): " + (knownUsernames == null ? 0 : knownUsernames.size())
+            + " usernames, " + users.size() + " users loaded in " + elapsed + " ms");
     }
 
 
     /**
-     * Returns the MongoClient used by this UserList.
-     * @return The MongoClient instance.
+     * Returns the storage used by this UserList.
+     * @return The Storage instance.
      */
-    public MongoClient returnMongoClient(){
-        return this.mongoClient;
+    public Storage getStorage(){
+        return this.storage;
     }
 
 
@@ -60,15 +109,13 @@ public class UserList {
      */
     public String returnAllUserNames(){
 
-        String allUserNames = "";
-
-        MongoCollection<Document> userCollection = mongoDB.returnCollection("UserDatabase", "Users", mongoClient);
+        StringBuilder allUserNames = new StringBuilder();
 
-        for(Document doc : userCollection.find() ){
-            allUserNames += doc.getString("Username") + ", ";
+        for(String username : storage.users().findAllUsernames() ){
+            allUserNames.append( username ).append(", ");
         }
 
-        return allUserNames;
+        return allUserNames.toString();
 
     }
 
@@ -80,51 +127,91 @@ public class UserList {
      */
     public String checkUsername(String userName){
 
-        MongoCollection<Document> userCollection = mongoDB.returnCollection("UserDatabase", "Users", mongoClient);
-
-        for(Document doc : userCollection.find() ){
-            if( userName.compareTo( doc.getString("Username") ) == 0 ){
-                User user = new User( userName, doc.getString("Password") );
-                addUser(user);
-                return "True";
-            }
+        if( accessUser(userName) != null ){
+            return "True";
         }
 
-
         return "False";
 
     }
 
     /**
-     * Validates the provided login credentials against the stored user information.
+     * Validates the provided login credentials against the stored user information. The user is read by its indexed
+     * username, and a password still stored in plain text (or with fewer iterations than configured) is replaced
+     * by a new hash once it has been checked.
      * @param username The username to validate.
      * @param pw The password to validate.
      * @return "True" if the credentials match, otherwise "False".
+     * @throws PasswordHasher.BusyException If too many passwords are being checked at once.
      */
     public String checkLogin(String username, String pw){
 
-        MongoCollection<Document> userCollection = mongoDB.returnCollection("UserDatabase", "Users", mongoClient);
-        
-        String newUsername = null;
-        String password = null;
-
-        for(Document doc : userCollection.find() ){
+        if(username == null || pw == null || (knownUsernames != null && !knownUsernames.contains(username))){
+            return "False";
+        }
 
-            if( (username.compareTo( doc.getString("Username") ) == 0) && (pw.compareTo( doc.getString("Password") ) == 0) ){
-                newUsername = doc.getString("Username");
-                password = doc.getString("Password");
-                break;
-            }
+        Document doc = storage.users().find(username);
+        if(doc == null || !passwords.verify(pw, doc.getString("Password"))){
+            return "False";
         }
 
-        if(newUsername != null && password != null){
-            User user = accessUser(newUsername);
-            //addUser(oldUser);
-            return "True";
+        //Makes sure the user is loaded before the frontend starts asking for their information
+        User user = this.users.get(username);
+        if(user == null){
+            user = addUser( new User(doc, storage) );
         }
-        else{
-            return "False";
+
+        if( passwords.needsRehash(doc.getString("Password")) ){
+            try{
+                user.updatePassword( passwords.hash(pw) );
+            }
+            catch(PasswordHasher.BusyException e){
+                //The login itself succeeded, the password is upgraded on a later one
+            }
+            catch(RuntimeException e){
+                //Same if the new hash couldn't be stored, the old one is still there and still valid
+                System.out.println("Could not upgrade the password of " + username + ": " + e.getMessage());
+            }
         }
+        return "True";
+    }
+
+    /**
+     * Starts a session for a user who has just logged in or signed up.
+     * @param username The user.
+     * @return The session token to give the client.
+     */
+    public String startSession(String username){
+        return sessions.create(username);
+    }
+
+    /**
+     * Retrieves the User a session token belongs to, keeping the session alive.
+     * @param token The session token.
+     * @return The User object, or null if the token is unknown or has expired.
+     */
+    public User accessSession(String token){
+        String username = sessions.resolve(token);
+        return username == null ? null : cachedUser(username);
+    }
+
+    /**
+     * Ends a session, e.g. on logout. The User is dropped from the registry once it was their last session.
+     * @param token The session token.
+     * @return True if there was such a session.
+     */
+    public boolean endSession(String token){
+        return sessions.end(token);
+    }
+
+    /**
+     * Changes a user's password, storing only its hash.
+     * @param user The user whose password changes.
+     * @param password The new password.
+     * @throws PasswordHasher.BusyException If too many passwords are being hashed at once.
+     */
+    public void updatePassword(User user, String password){
+        user.updatePassword( passwords.hash(password) );
     }
 
 
@@ -135,65 +222,108 @@ public class UserList {
      * @param password The chosen password.
      * @param contactInfo The user's contact information.
      * @return True if the user is successfully created, false if the username already exists.
+     * @throws PasswordHasher.BusyException If too many passwords are being hashed at once.
      */
     public boolean createUser(String displayName, String username, String password, String contactInfo){
         
-        MongoCollection<Document> userCollection = mongoDB.returnCollection("UserDatabase", "Users", mongoClient);
-
-        boolean ifUser = false;
-        for(Document doc : userCollection.find() ){
-
-            if( username.compareTo( doc.getString("Username") ) == 0){
-                ifUser = true;
-            }
-        }
+        boolean ifUser = storage.users().find(username) != null;
 
         if(ifUser){
             return false;
         }
         else{
-            User newUser = new User(displayName, username, password, contactInfo, mongoClient);
+            User newUser = new User(displayName, username, passwords.hash(password), contactInfo, storage);
             addUser( newUser );
+            if(knownUsernames != null){
+                knownUsernames.add(username);
+            }
             return true;
         }   
 
     }
 
     /**
-     * Adds a user to the internal list of users.
+     * Adds a user to the registry. If that username is already registered the existing User is kept, so
+     * handlers holding a reference to it keep seeing the same object.
      * @param user The User object to add.
+     * @return The User now registered under that username.
      */
-    private void addUser(User user){
-        this.userArray.add(user);
+    private User addUser(User user){
+        User existing = this.users.putIfAbsent(user.getUsername(), user);
+        return existing != null ? existing : user;
     }
 
+    /**
+     * Removes a user from the registry, e.g. on logout. Only removes the entry if it is still this exact User.
+     * @param user The User object to remove, ignored if null.
+     */
     public void removeUser(User user){
-        //this.userArray.remove(user);
+        if(user != null){
+            this.users.remove(user.getUsername(), user);
+        }
     }
 
     /**
-     * Retrieves a User object for a specified username.
+     * Retrieves a User object for a specified username, loading it from the database the first time it's asked for.
+     * The user is leased in the SessionStore, so without a session they're dropped from the cache once idle.
      * @param userName The username of the User to retrieve.
      * @return The User object if found, otherwise null.
      */
     public User accessUser(String userName){
+        User user = cachedUser(userName);
+        if(user != null){
+            sessions.touch(userName);
+        }
+        return user;
+    }
 
-        for(User user : this.userArray){
-            if( userName.compareTo( user.getUsername() ) == 0){
-                return user; //Breaks out of for loop
-            }
+    /**
+     * Retrieves a User for a username, loading it if it isn't cached, without counting as a use.
+     * @param userName The username of the User to retrieve.
+     * @return The User object if found, otherwise null.
+     */
+    private User cachedUser(String userName){
+        if(userName == null){
+            return null;
+        }
+        User user = this.users.get(userName);
+        if(user == null){
+            user = loadUser(userName);
         }
+        return user;
+    }
 
-        //User should be found, so this line should never run
-        return null;
+    /**
+     * Reads a single user from the database by its indexed username and registers it.
+     * @param userName The username of the User to load.
+     * @return The User object, or null if there's no such user.
+     */
+    private User loadUser(String userName){
+        if(knownUsernames != null && !knownUsernames.contains(userName)){
+            return null;
+        }
+
+        Document doc = storage.users().find(userName);
+        if(doc == null){
+            return null;
+        }
+        return addUser( new User(doc, storage) );
     }
 
     /**
-     * Provides access to the current list of users.
+     * Provides a snapshot of the users currently in the registry.
      * @return An ArrayList of User objects.
      */
     public ArrayList<User> getUsersArray(){
-        return userArray;
+        return new ArrayList<>(users.values());
+    }
+
+    /**
+     * Returns how many users are loaded in the registry.
+     * @return The number of cached users.
+     */
+    public int getCachedUserCount(){
+        return users.size();
     }
 
     /**
@@ -203,5 +333,45 @@ public class UserList {
     public Forums getForum(){
         return this.forum;
     }
+
+    /**
+     * Provides access to the stored profile pictures and photo gallery images.
+     * @return The ImageRepository of this UserList's storage.
+     */
+    public ImageRepository getImages(){
+        return this.storage.images();
+    }
+
+    /**
+     * Provides access to the workers that make the thumbnail, card and full size versions of stored images.
+     * @return The ImagePipeline instance associated with this UserList.
+     */
+    public ImagePipeline getImagePipeline(){
+        return this.imagePipeline;
+    }
+
+    /**
+     * Provides access to the logged in sessions.
+     * @return The SessionStore instance associated with this UserList.
+     */
+    public SessionStore getSessions(){
+        return this.sessions;
+    }
+
+    /**
+     * Provides access to the pool passwords are hashed on.
+     * @return The PasswordHasher instance associated with this UserList.
+     */
+    public PasswordHasher getPasswordHasher(){
+        return this.passwords;
+    }
+
+    /**
+     * Provides access to the buffer coalescing profile changes.
+     * @return The UserWriteBuffer, or null if write-behind is off.
+     */
+    public UserWriteBuffer getWriteBuffer(){
+        return this.writeBuffer;
+    }
     
 }
@@ -0,0 +1,55 @@
+package com.example;
+
+/**
+ * The user documents, one per username, with the fields User reads and writes ("Display Name", "Password", "PFP",
+ * "Photo Gallery", ...).
+ * @Date: 18-10-2026
+ */
+
+import java.util.Map;
+
+import org.bson.Document;
+
+
+public interface UserRepository {
+
+    /**
+     * Returns a user's document.
+     * @param username The username.
+     * @return The document, or null if there's no such user.
+     */
+    Document find(String username);
+
+    /**
+     * Returns every user's document.
+     * @return The documents, in no particular order.
+     */
+    Iterable<Document> findAll();
+
+    /**
+     * Returns every username, without reading the rest of the documents.
+     * @return The usernames, in no particular order.
+     */
+    Iterable<String> findAllUsernames();
+
+    /**
+     * Stores a new user.
+     * @param user The document, with a "Username" no other user has.
+     */
+    void insert(Document user);
+
+    /**
+     * Sets one field of a user's document.
+     * @param username The username.
+     * @param field The field name, e.g. "Display Name".
+     * @param value The new value.
+     */
+    void update(String username, String field, Object value);
+
+    /**
+     * Sets several fields of a user's document in a single write.
+     * @param username The username.
+     * @param fields The new values, keyed by field name.
+     */
+    void update(String username, Map<String, ?> fields);
+}
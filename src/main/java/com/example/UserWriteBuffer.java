@@ -0,0 +1,316 @@
+package com.example;
+
+/**
+ * Write-behind for user profile changes. Instead of every setter doing its own update, changed fields are collected
+ * per user and a single flusher thread writes each user's fields with one $set every few milliseconds, so a user who
+ * changes five fields in a burst costs one write instead of five, and setting a field twice only writes the last
+ * value. A change is written at most one linger window (plus the write itself) after it was made, and everything
+ * still pending is written on shutdown. Unlike forum posts, setters don't wait for the write: the User already
+ * holds the new value and serves reads from it. A failed write is retried on the next flushes, up to a limit; after
+ * that the user's changes are dropped and logged rather than kept stale and unwritten forever. Passwords are never
+ * buffered: a password change is written before the setter returns, so one that was reported done can't be dropped.
+ * @Date: 18-10-2026
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import org.bson.Document;
+
+
+public class UserWriteBuffer implements UserRepository {
+
+    //Written straight through, the client is told the change is done and a later failure would be silent
+    private static final Set<String> WRITE_THROUGH = Collections.singleton("Password");
+
+    private final UserRepository users;
+    private final long lingerMillis;
+    private final int maxRetries;
+    private final ConcurrentMap<String, Map<String, Object>> pending = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Map<String, Object>> writing = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();    //Flushes run one at a time so a user's writes stay in order
+    private final Object handoff = new Object();      //Moving changes from pending to writing looks atomic to find()
+    private final Map<String, Integer> retries = new HashMap<>();    //Failed writes in a row per user, under flushLock
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final AtomicLong droppedWrites = new AtomicLong();
+    private final AtomicLong lastFlushNanos = new AtomicLong();
+
+    /**
+     * Creates the buffer, retrying a failed write up to 5 times, and starts its flusher thread.
+     * @param users The repository changes are written to.
+     * @param lingerMillis How long changes are collected before they're written.
+     */
+    public UserWriteBuffer(UserRepository users, int lingerMillis){
+        this(users, lingerMillis, 5);
+    }
+
+    /**
+     * Creates the buffer and starts its flusher thread.
+     * @param users The repository changes are written to.
+     * @param lingerMillis How long changes are collected before they're written.
+     * @param maxRetries How many more flushes try a user's failed write before the changes are dropped.
+     */
+    public UserWriteBuffer(UserRepository users, int lingerMillis, int maxRetries){
+        this.users = users;
+        this.lingerMillis = Math.max(1, lingerMillis);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.flusher = RequestExecutor.namedThreads("user-writer-").newThread(new Runnable(){
+            public void run(){
+                flushLoop();
+            }
+        });
+        this.flusher.start();
+    }
+
+    /**
+     * Returns a view of the storage whose user repository is this buffer, everything else is the storage's own.
+     * @param storage The storage the buffered users belong to.
+     * @return The storage to give Users.
+     */
+    public Storage wrap(final Storage storage){
+        final UserRepository buffered = this;
+        return new Storage(){
+            public UserRepository users(){ return buffered; }
+            public LeaderboardRepository leaderboard(){ return storage.leaderboard(); }
+            public TaskRepository tasks(){ return storage.tasks(); }
+            public ForumRepository forum(){ return storage.forum(); }
+            public ClassRepository classes(){ return storage.classes(); }
+            public ImageRepository images(){ return storage.images(); }
+            public void ensureIndexes(){ storage.ensureIndexes(); }
+        };
+    }
+
+    /**
+     * Reads a user, with any changes that haven't been written yet applied.
+     */
+    public Document find(String username){
+        //Taken before the read: a change that's gone from both by then was written before it
+        Map<String, Object> written, changed;
+        synchronized(handoff){
+            written = writing.get(username);
+            changed = pending.get(username);
+        }
+        Document doc = users.find(username);
+        if(doc != null){
+            overlay(doc, written);
+            overlay(doc, changed);
+        }
+        return doc;
+    }
+
+    /**
+     * Writes every pending change first, so the users read are up to date.
+     */
+    public Iterable<Document> findAll(){
+        flush();
+        return users.findAll();
+    }
+
+    public Iterable<String> findAllUsernames(){
+        return users.findAllUsernames();
+    }
+
+    public void insert(Document user){
+        users.insert(user);
+    }
+
+    public void update(String username, String field, Object value){
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put(field, value);
+        update(username, fields);
+    }
+
+    /**
+     * Buffers the fields, except credentials which are written before this returns.
+     * @throws RuntimeException If a credential couldn't be written, none of the fields are buffered then.
+     */
+    public void update(String username, final Map<String, ?> fields){
+        //Setters hand over live lists such as the photo gallery, so take them as they are now
+        final Map<String, Object> values = new LinkedHashMap<>();
+        Map<String, Object> direct = null;
+        for(Map.Entry<String, ?> field : fields.entrySet()){
+            Object value = field.getValue();
+            if( WRITE_THROUGH.contains(field.getKey()) ){
+                if(direct == null){
+                    direct = new LinkedHashMap<>();
+                }
+                direct.put(field.getKey(), value);
+                continue;
+            }
+            values.put(field.getKey(), value instanceof List ? new ArrayList<Object>((List<?>) value) : value);
+        }
+        if(direct != null){
+            users.update(username, direct);
+            writes.incrementAndGet();
+            if(values.isEmpty()){
+                updates.incrementAndGet();
+                return;
+            }
+        }
+        //A pending map is replaced rather than changed, so find() and the flusher can read it without a lock
+        pending.merge(username, values, new BiFunction<Map<String, Object>, Map<String, Object>, Map<String, Object>>(){
+            public Map<String, Object> apply(Map<String, Object> changed, Map<String, Object> newer){
+                Map<String, Object> merged = new LinkedHashMap<>(changed);
+                merged.putAll(newer);
+                return merged;
+            }
+        });
+        updates.incrementAndGet();
+    }
+
+    /**
+     * Writes every pending change now, one update per user.
+     */
+    public void flush(){
+        synchronized(flushLock){
+            long start = System.nanoTime();
+            for(String username : new ArrayList<>(pending.keySet())){
+                //find() sees the changes in one or the other until they're written
+                Map<String, Object> fields;
+                synchronized(handoff){
+                    fields = pending.remove(username);
+                    if(fields != null){
+                        writing.put(username, fields);
+                    }
+                }
+                if(fields == null){
+                    continue;
+                }
+                try{
+                    users.update(username, fields);
+                    writes.incrementAndGet();
+                    retries.remove(username);
+                }
+                catch(RuntimeException e){
+                    failedWrites.incrementAndGet();
+                    int failures = retries.containsKey(username) ? retries.get(username) + 1 : 1;
+                    if(failures > maxRetries){
+                        retries.remove(username);
+                        droppedWrites.incrementAndGet();
+                        System.out.println("Could not write changes to " + username + " after " + failures
+                            + " tries, dropping " + fields + ": " + e.getMessage());
+                    }
+                    else{
+                        retries.put(username, failures);
+                        requeue(username, fields);
+                        System.out.println("Could not write changes to " + username + ", will retry: " + e.getMessage());
+                    }
+                }
+                finally{
+                    writing.remove(username);
+                }
+            }
+            lastFlushNanos.set(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Stops the flusher thread and writes everything still pending.
+     */
+    public void shutdown(){
+        running = false;
+        flusher.interrupt();
+        try{
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Returns how many users have changes waiting to be written.
+     * @return The number of dirty users.
+     */
+    public int getPendingUsers(){
+        return pending.size();
+    }
+
+    /**
+     * Returns how many field updates the setters have made.
+     * @return The number of updates.
+     */
+    public long getUpdateCount(){
+        return updates.get();
+    }
+
+    /**
+     * Returns how many writes the updates were coalesced into.
+     * @return The number of writes.
+     */
+    public long getWriteCount(){
+        return writes.get();
+    }
+
+    /**
+     * Returns how many writes failed, whether they were put back to be retried or dropped.
+     * @return The number of failed writes.
+     */
+    public long getFailedWriteCount(){
+        return failedWrites.get();
+    }
+
+    /**
+     * Returns how many users' changes were dropped because their write kept failing.
+     * @return The number of dropped writes.
+     */
+    public long getDroppedWriteCount(){
+        return droppedWrites.get();
+    }
+
+    /**
+     * Returns how long the last flush took, in milliseconds.
+     * @return The last flush latency.
+     */
+    public double getLastFlushMillis(){
+        return lastFlushNanos.get() / 1e6;
+    }
+
+    private void flushLoop(){
+        while(running){
+            try{
+                Thread.sleep(lingerMillis);
+            }
+            catch(InterruptedException e){
+                //shutdown() interrupts to stop waiting, it does the last flush itself
+                return;
+            }
+            flush();
+        }
+    }
+
+    private void requeue(String username, final Map<String, Object> failed){
+        //Anything set since the failed write is newer, so it wins over what's put back
+        pending.compute(username, new BiFunction<String, Map<String, Object>, Map<String, Object>>(){
+            public Map<String, Object> apply(String key, Map<String, Object> changed){
+                Map<String, Object> merged = new LinkedHashMap<>(failed);
+                if(changed != null){
+                    merged.putAll(changed);
+                }
+                return merged;
+            }
+        });
+    }
+
+    private static void overlay(Document doc, Map<String, Object> fields){
+        if(fields != null){
+            doc.putAll(fields);
+        }
+    }
+}
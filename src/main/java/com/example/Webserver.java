@@ -10,11 +10,19 @@ package com.example;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
@@ -31,7 +39,12 @@ public class Webserver{
   private int port;
   private HttpServer server;
   private LeaderBoard lb = null;
+  private RequestExecutor executor = null;
+  private int compressMinBytes = -1;   //Smallest response body worth compressing, -1 when compression is off
   public static MongoClient mongoClient = null;
+  static final String SESSION_COOKIE = "session";
+  //False keeps the old frontend working, which names the user with a plain "Username" parameter
+  static final boolean SESSION_REQUIRED = ServerConfig.getBoolean("SESSION_REQUIRED", false);
 
   /**
    * Creates an HTTP server on the specified port and sets up context handlers for different API endpoints.
@@ -42,51 +55,183 @@ public class Webserver{
    * @throws IOException If an I/O error occurs.
    */
   public Webserver(int port, MongoClient mongoClient) throws IOException{
-    Webserver.mongoClient = mongoClient;
+    this(port, new MongoStorage(mongoClient));
+  }
+
+  /**
+   * Creates an HTTP server on the specified port that keeps its data in the given storage.
+   *
+   * @param port The port number on which the server will listen.
+   * @param storage Where users, the leaderboard, tasks, the forum and images are kept.
+   * @throws IOException If an I/O error occurs.
+   */
+  public Webserver(int port, Storage storage) throws IOException{
+    long startTime = System.nanoTime();
+    if(storage instanceof MongoStorage){
+      Webserver.mongoClient = ((MongoStorage) storage).getMongoClient();
+    }
     this.port = port;
-    this.server = HttpServer.create( new InetSocketAddress(this.port), 0);
-    this.users = new UserList(mongoClient);
-    this.lb = new LeaderBoard(mongoClient);
+    //The JDK server leaves Nagle's algorithm on, which holds a response's body back until the client acknowledges its
+    //headers, about 40ms on a kept-alive connection. Read once when the first server is created.
+    if( System.getProperty("sun.net.httpserver.nodelay") == null ){
+      System.setProperty("sun.net.httpserver.nodelay", String.valueOf( ServerConfig.getBoolean("SERVER_NODELAY", true) ));
+    }
+    this.server = HttpServer.create( new InetSocketAddress(this.port), ServerConfig.getInt("SERVER_BACKLOG", 0) );
+    this.executor = RequestExecutor.fromConfig();
+    this.server.setExecutor(this.executor);
+    if( ServerConfig.getBoolean("COMPRESSION", true) ){
+      this.compressMinBytes = ServerConfig.getInt("COMPRESS_MIN_BYTES", 1024);
+    }
+
+    //Every per-user read and write filters on "Username", so make sure it's indexed before taking requests
+    try{
+      storage.ensureIndexes();
+    }
+    catch(MongoException e){
+      System.out.println("Could not create Username indexes: " + e.getMessage());
+    }
+
+    this.users = new UserList(storage);
+    this.lb = new LeaderBoard(storage);
+    this.lb.migratePoints();
 
     //These are all of the contexts for the frontend to use to communicate to the backend that it needs something
     //then the backend fulfills it and replies with a message to notify frontend that the action has been completed.
-    this.server.createContext("/Ping", new IndexHandler() );
-    this.server.createContext("/CreateNewUser", new CreateUser( this.users ) );
-    this.server.createContext("/CreateOldUser", new Login( this.users) );
-    this.server.createContext("/Logout", new Logout( this.users) );
-    this.server.createContext("/GetAllUserNames", new GetAllUsernames( this.users ) );
-    this.server.createContext("/LikedFoods", new AddHAMFood( this.users) );
-    this.server.createContext("/SelectedFaculty", new AddFaculty( this.users) );
-    this.server.createContext("/LikedFacilities", new AddFacilities( this.users) );
-    this.server.createContext("/SelectedDorm", new AddDorm( this.users) );
-    this.server.createContext("/SelectedClasses", new AddClasses( this.users ) );
-    this.server.createContext("/UpdateDisplayName", new UpdateDisplayName( this.users));
-    this.server.createContext("/UpdatePassword", new UpdatePassword( this.users ) ); 
-    this.server.createContext("/UploadPFP", new UploadPFP( this.users ) );
-    this.server.createContext("/UpdateAboutme", new UpdateAboutMe( this.users ) );
-    this.server.createContext("/UpdateContactInformation", new UpdateContactInformation( this.users ) );
-    this.server.createContext("/UpdateInterests", new UpdateInterests( this.users ) );
-    this.server.createContext("/UpdateCatalystNotes", new UpdateCatalyst( this.users) );
-    this.server.createContext("/AddToPhotoGallery", new AddImgToPhotoGallery( this.users) );
-    this.server.createContext("/ReturnUsername", new ReturnUsername( this.users ) );
-    this.server.createContext("/ReturnDisplayName", new ReturnDisplayName( this.users ) );
-    this.server.createContext("/ReturnPFP", new ReturnPFP( this.users ) );
-    this.server.createContext("/ReturnInterests", new ReturnInterests( this.users ) );
-    this.server.createContext("/ReturnAboutMe", new ReturnAboutMe( this.users ) );
-    this.server.createContext("/ReturnFood", new ReturnFood( this.users ) );
-    this.server.createContext("/ReturnDorm", new ReturnDorm( this.users ) );
-    this.server.createContext("/ReturnClasses", new ReturnClasses( this.users ) );
-    this.server.createContext("/ReturnFacilities", new ReturnFacilities( this.users ) );
-    this.server.createContext("/ReturnFaculty", new ReturnFaculty( this.users ) );
-    this.server.createContext("/ReturnContactInfo", new ReturnContactInformation( this.users) ); 
-    this.server.createContext("/ReturnCatalystNotes", new ReturnCatalystNotes( this.users) );
-    this.server.createContext("/ReturnPhotoGallery", new ReturnPhotoGallery( this.users) );
-    this.server.createContext("/UpdateLeaderboard", new UpdateLeaderBoard( this.lb ) );
-    this.server.createContext("/ReturnLBInfo", new ReturnLBInformation( this.lb ) ); 
+    register("/Ping", new IndexHandler() );
+    register("/CreateNewUser", new CreateUser( this.users, this.lb ) );
+    register("/CreateOldUser", new Login( this.users) );
+    register("/Logout", new Logout( this.users) );
+    register("/GetAllUserNames", new GetAllUsernames( this.users ) );
+    register("/LikedFoods", new AddHAMFood( this.users, this.lb ) );
+    register("/SelectedFaculty", new AddFaculty( this.users, this.lb ) );
+    register("/LikedFacilities", new AddFacilities( this.users, this.lb ) );
+    register("/SelectedDorm", new AddDorm( this.users, this.lb ) );
+    register("/SelectedClasses", new AddClasses( this.users, this.lb ) );
+    register("/UpdateDisplayName", new UpdateDisplayName( this.users));
+    register("/UpdatePassword", new UpdatePassword( this.users ) ); 
+    register("/UploadPFP", new UploadPFP( this.users ) );
+    register("/UpdateAboutme", new UpdateAboutMe( this.users ) );
+    register("/UpdateContactInformation", new UpdateContactInformation( this.users ) );
+    register("/UpdateInterests", new UpdateInterests( this.users ) );
+    register("/UpdateCatalystNotes", new UpdateCatalyst( this.users) );
+    register("/AddToPhotoGallery", new AddImgToPhotoGallery( this.users) );
+    register("/UpdateProfile", new UpdateProfile( this.users ) );
+    register("/ReturnUsername", new ReturnUsername( this.users ) );
+    register("/ReturnDisplayName", new ReturnDisplayName( this.users ) );
+    register("/ReturnPFP", new ReturnPFP( this.users ) );
+    register("/ReturnInterests", new ReturnInterests( this.users ) );
+    register("/ReturnAboutMe", new ReturnAboutMe( this.users ) );
+    register("/ReturnFood", new ReturnFood( this.users ) );
+    register("/ReturnDorm", new ReturnDorm( this.users ) );
+    register("/ReturnClasses", new ReturnClasses( this.users ) );
+    register("/ReturnFacilities", new ReturnFacilities( this.users ) );
+    register("/ReturnFaculty", new ReturnFaculty( this.users ) );
+    register("/ReturnContactInfo", new ReturnContactInformation( this.users) ); 
+    register("/ReturnCatalystNotes", new ReturnCatalystNotes( this.users) );
+    register("/ReturnPhotoGallery", new ReturnPhotoGallery( this.users) );
+    register("/ReturnProfile", new ReturnProfile( this.users ) );
+    register("/UpdateLeaderboard", new UpdateLeaderBoard( this.lb ) );
+    register("/ReturnLBInfo", new ReturnLBInformation( this.lb ) ); 
+    register("/ReturnLBTop", new ReturnLBTop( this.lb ) );
+    register("/ReturnLBRank", new ReturnLBRank( this.lb, this.users ) );
+    register("/ReturnLBAround", new ReturnLBAround( this.lb, this.users ) );
+    register("/ForumPost", new ForumPost( this.users ) );
+    register("/ForumMessages", new ForumMessages( this.users ) );
+    register("/ForumStream", new ForumStream( this.users ) );
+    register("/ServerStatus", new ServerStatus( this.executor, this.users ) );
+    register("/Metrics", new MetricsHandler() );
 
 
     this.server.start();
+    System.out.println("Webserver ready on port " + this.port + " in "
+      + TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - startTime ) + " ms");
+
+  }
+
+  /**
+   * Registers a handler for the given path. Requests that arrive while the executor is full are answered
+   * with a 503 right away instead of reaching the handler. Responses are compressed for clients that accept it.
+   * CORS preflights for POST bodies are answered here, as are request bodies the handler refused to read.
+   *
+   * @param path The URI path of the context.
+   * @param handler The handler serving it.
+   */
+  private void register(String path, final HttpHandler handler){
+    final Metrics.Route metrics = Metrics.route(path);
+    this.server.createContext(path, new HttpHandler(){
+      public void handle(HttpExchange exchange) throws IOException{
+        long start = metrics.start();
+        boolean failed = true;
+        try{
+          dispatch(exchange);
+          failed = exchange.getResponseCode() >= 500;
+        }
+        finally{
+          metrics.end(start, failed);
+        }
+      }
 
+      private void dispatch(HttpExchange exchange) throws IOException{
+        if( RequestExecutor.isShed() ){
+          exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+          exchange.getResponseHeaders().add("Retry-After", "1");
+          String response = "Server is busy, please try again";
+          exchange.sendResponseHeaders(503, response.length());
+          exchange.getResponseBody().write(response.getBytes());
+          exchange.getResponseBody().close();
+          return;
+        }
+        if( "OPTIONS".equals(exchange.getRequestMethod()) ){
+          exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+          exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
+          exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type, Authorization");
+          exchange.getResponseHeaders().add("Access-Control-Max-Age", "86400");
+          exchange.sendResponseHeaders(204, -1);
+          exchange.close();
+          return;
+        }
+        try{
+          handler.handle( compressMinBytes < 0 ? exchange : CompressingExchange.wrap(exchange, compressMinBytes) );
+        }
+        catch(RequestBody.RejectedException e){
+          if(exchange.getResponseCode() != -1){
+            throw e;
+          }
+          exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+          //Whatever is left of a refused body isn't worth reading, so don't try to reuse the connection
+          exchange.getResponseHeaders().set("Connection", "close");
+          sendJson(exchange, e.getStatus(), new JSONObject().put("Error", e.getMessage()));
+        }
+        catch(PasswordHasher.BusyException e){
+          if(exchange.getResponseCode() != -1){
+            throw e;
+          }
+          //Too many logins are being hashed already, shed this one the same way a full executor would
+          exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+          exchange.getResponseHeaders().set("Retry-After", "1");
+          sendJson(exchange, 503, new JSONObject().put("Error", "Server is busy, please try again"));
+        }
+      }
+    });
+  }
+
+  /**
+   * Stops the server, giving in-flight requests up to the given number of seconds to finish.
+   *
+   * @param delay The maximum time in seconds to wait for requests to finish.
+   */
+  public void stop(int delay){
+    this.server.stop(delay);
+    this.executor.shutdown();
+    this.users.getForum().shutdown();
+    this.users.getImagePipeline().shutdown();
+    this.users.getPasswordHasher().shutdown();
+    this.users.getSessions().shutdown();
+    //After the executor so changes made by the last requests are written too
+    UserWriteBuffer userWrites = this.users.getWriteBuffer();
+    if(userWrites != null){
+      userWrites.shutdown();
+    }
   }
 
   /**
@@ -100,26 +245,218 @@ public class Webserver{
 
 
   /**
-   * Converts a query string into a map of key-value pairs.
-   * 
-   * @param query The query string to be parsed.
-   * @return A map containing the parsed query parameters.
+   * Reads a whole number parameter, using the default when it's missing or not a number and capping it at max.
+   *
+   * @param params The parsed query parameters.
+   * @param name The parameter name.
+   * @param defaultValue The value to use when the parameter is missing or invalid.
+   * @param max The largest value allowed.
+   * @return The parameter's value.
+   */
+  public static int intParam(Map<String, String> params, String name, int defaultValue, int max){
+    int value = defaultValue;
+    String raw = params.get(name);
+    if(raw != null){
+      try{
+        value = Integer.parseInt(raw.trim());
+      }
+      catch(NumberFormatException e){
+        value = defaultValue;
+      }
+    }
+    return Math.max(0, Math.min(value, max));
+  }
+
+  /**
+   * Returns the user a request is made as. The session token is read from the "Token" parameter, an
+   * "Authorization: Bearer" header or the session cookie, in that order. Without a valid token the "Username"
+   * parameter is used as before, unless SESSION_REQUIRED is true.
+   *
+   * @param exchange The request.
+   * @param params Its parsed parameters.
+   * @param userList Where sessions and users are kept.
+   * @return The User, or null if the request doesn't name one that exists.
+   */
+  public static User currentUser(HttpExchange exchange, Map<String, String> params, UserList userList){
+    String token = sessionToken(exchange, params);
+    User user = token == null ? null : userList.accessSession(token);
+    if(user == null && !SESSION_REQUIRED){
+      user = userList.accessUser(params.get("Username"));
+    }
+    return user;
+  }
+
+  /**
+   * Returns the session token a request carries, without checking it.
+   *
+   * @param exchange The request.
+   * @param params Its parsed parameters.
+   * @return The token, or null if there's none.
+   */
+  public static String sessionToken(HttpExchange exchange, Map<String, String> params){
+    String token = params.get("Token");
+    if(token != null){
+      return token;
+    }
+    String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+    if(authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)){
+      return authorization.substring(7).trim();
+    }
+    List<String> cookies = exchange.getRequestHeaders().get("Cookie");
+    if(cookies != null){
+      for(String header : cookies){
+        for(String cookie : header.split(";")){
+          String pair = cookie.trim();
+          if( pair.startsWith(SESSION_COOKIE + "=") ){
+            return pair.substring(SESSION_COOKIE.length() + 1);
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Hands a new session's token to the client, as a header for scripts and as a cookie for browsers.
+   *
+   * @param exchange The response, before its headers are sent.
+   * @param token The session token.
+   */
+  public static void sendSessionToken(HttpExchange exchange, String token){
+    exchange.getResponseHeaders().set("X-Session-Token", token);
+    exchange.getResponseHeaders().set("Access-Control-Expose-Headers", "X-Session-Token");
+    exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE + "=" + token + "; Path=/; HttpOnly; SameSite=Lax");
+  }
+
+  /**
+   * Writes a JSON response with the right byte length for non-ASCII text.
+   *
+   * @param exchange The exchange to answer.
+   * @param status The HTTP status code.
+   * @param json The JSON to send.
+   * @throws IOException If the response can't be written.
+   */
+  public static void sendJson(HttpExchange exchange, int status, Object json) throws IOException{
+    byte[] response = json.toString().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, response.length);
+    exchange.getResponseBody().write(response);
+    exchange.getResponseBody().close();
+  }
+
+  /**
+   * Writes a stored image as raw bytes. The ETag is the image's hash, so a client that already has it gets a 304
+   * without the image being read. Images fetched by hash never change and can be cached forever, ones looked up
+   * through a user have to be revalidated since the user can change which image that is.
+   * With a "Size" of thumbnail, card or full the pre-sized variant is sent instead. If it hasn't been made yet the
+   * image is queued in the pipeline and the original is sent in the meantime, uncached so the variant is picked up
+   * on a later request.
+   *
+   * @param exchange The exchange to answer.
+   * @param userList Gives access to the ImageRepository and ImagePipeline.
+   * @param hash The image's reference, may be null.
+   * @param size The requested variant's name, or null for the original.
+   * @param immutable True if the request named the hash itself.
+   * @throws IOException If the response can't be written.
    */
-  public static Map<String, String> queryToMap(String query) {
-    if(query == null) {
-        return null;
+  public static void sendImage(HttpExchange exchange, UserList userList, String hash, String size, boolean immutable)
+      throws IOException{
+    ImagePipeline.Variant variant = size == null ? null : ImagePipeline.Variant.fromName(size);
+    if( !Images.isReference(hash) || (size != null && variant == null) ){
+      exchange.sendResponseHeaders(404, -1);
+      exchange.close();
+      return;
+    }
+    ImageRepository images = userList.getImages();
+
+    byte[] image = null;
+    String etag = null;
+    if(variant != null){
+      etag = "\"" + Images.variantName(hash, variant.getName()) + "\"";
+      if( notModified(exchange, etag, immutable) ){
+        return;
+      }
+      image = images.loadVariant(hash, variant.getName());
+      if(image == null){
+        userList.getImagePipeline().submit(hash);
+        immutable = false;
+      }
+    }
+    if(image == null){
+      etag = "\"" + hash + "\"";
+      if( notModified(exchange, etag, immutable) ){
+        return;
+      }
+      image = images.load(hash);
+    }
+    if(image == null){
+      exchange.getResponseHeaders().remove("ETag");
+      exchange.getResponseHeaders().remove("Cache-Control");
+      exchange.sendResponseHeaders(404, -1);
+      exchange.close();
+      return;
     }
-    Map<String, String> result = new HashMap<>();
-    for (String param : query.split("&")) {
-        String[] entry = param.split("=");
-        if (entry.length > 1) {
-            result.put(entry[0], entry[1]);
-        }else{
-            result.put(entry[0], "");
+
+    exchange.getResponseHeaders().add("Content-Type", Images.contentType(image));
+    exchange.sendResponseHeaders(200, image.length);
+    exchange.getResponseBody().write(image);
+    exchange.getResponseBody().close();
+  }
+
+  /**
+   * Labels the response with an ETag and answers 304 if the client's If-None-Match already has it, so a repeat
+   * view costs a header instead of a body. Responses that aren't immutable are sent with no-cache, which lets the
+   * browser keep them but makes it check back every time. The tag of a compressed copy (see CompressingExchange)
+   * matches as well.
+   *
+   * @param exchange The exchange to answer.
+   * @param etag The quoted ETag of the response the handler is about to send.
+   * @param immutable True if whatever has this ETag can never change.
+   * @return True if the 304 was sent and the handler is done.
+   * @throws IOException If the response can't be written.
+   */
+  public static boolean notModified(HttpExchange exchange, String etag, boolean immutable) throws IOException{
+    exchange.getResponseHeaders().set("ETag", etag);
+    exchange.getResponseHeaders().set("Cache-Control", immutable ? "public, max-age=31536000, immutable" : "no-cache");
+
+    String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+    if( ifNoneMatch == null ){
+      return false;
+    }
+    for(String tag : ifNoneMatch.split(",")){
+      tag = tag.trim();
+      if( tag.equals("*") || CompressingExchange.matchesETag(tag, etag) ){
+        if( !tag.equals("*") ){
+          exchange.getResponseHeaders().set("ETag", tag);   //The client's copy may be the compressed one
         }
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return true;
+      }
     }
+    return false;
+  }
+
+  /**
+   * Labels a response about a user with the user's ETag, answering 304 if the client already has it.
+   *
+   * @param exchange The exchange to answer.
+   * @param user The user the response is about, may be null.
+   * @return True if the 304 was sent and the handler is done.
+   * @throws IOException If the response can't be written.
+   */
+  public static boolean notModified(HttpExchange exchange, User user) throws IOException{
+    return user != null && notModified(exchange, user.getETag(), false);
+  }
 
-    return result;
+  /**
+   * Converts a query string into a map of key-value pairs.
+   * 
+   * @param query The raw query string to be parsed, still percent-encoded (URI.getRawQuery()).
+   * @return A map containing the decoded query parameters, empty if there are none.
+   */
+  public static QueryParams queryToMap(String query) {
+    return QueryParams.parse(query);
   }
 
 
@@ -152,7 +489,7 @@ class GetAllUsernames implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
     
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
 
     String listUsernames = newUsersList.returnAllUserNames();
 
@@ -178,7 +515,7 @@ class CheckUsers implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
     
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
 
     String username = params.get("Username");
     String checkIfUser = newUsersList.checkUsername(username);
@@ -199,16 +536,18 @@ class CheckUsers implements HttpHandler{
 class CreateUser implements HttpHandler{
 
   private UserList newUsersList;
+  private LeaderBoard lb;
 
-  public CreateUser(UserList creatingUser){
+  public CreateUser(UserList creatingUser, LeaderBoard leaderBoard){
     this.newUsersList = creatingUser;
+    this.lb = leaderBoard;
   }
   
   public void handle(HttpExchange exchange) throws IOException {
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
     
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = RequestBody.params(exchange);
 
     String displayName = params.get("DisplayName");
     String username = params.get("Username");
@@ -216,10 +555,12 @@ class CreateUser implements HttpHandler{
     String contactInfo = params.get("ContactInformation");
 
     boolean alreadyUsername = newUsersList.createUser(displayName, username, password, contactInfo);
+    if(alreadyUsername){
+      lb.addUser(username);
+      //A new user is logged in right away
+      Webserver.sendSessionToken(exchange, newUsersList.startSession(username));
+    }
 
-    //The username is the token being sent back to the frontend to grab the information from the 
-    //users on the website for more information requests.
-    //Should probably be changed to something more secure, but that's for later.
     String response = String.valueOf(alreadyUsername);
     exchange.sendResponseHeaders(200, response.length());
     exchange.getResponseBody().write(response.getBytes());
@@ -243,16 +584,17 @@ class Login implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = RequestBody.params(exchange);
 
     String username = params.get("Username");
     String password = params.get("Password");
 
     String response = userList.checkLogin(username, password);
 
-    //The username is the token being sent back to the frontend to grab the information from the 
-    //users on the website for more information requests.
-    //Should probably be changed to something more secure, but that's for later.
+    //The session token names the user on later requests, the body stays "True" or "False" for the frontend
+    if( "True".equals(response) ){
+      Webserver.sendSessionToken(exchange, userList.startSession(username));
+    }
     exchange.sendResponseHeaders(200, response.length());
     exchange.getResponseBody().write(response.getBytes());
     exchange.getResponseBody().close();
@@ -276,11 +618,18 @@ class Logout implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = RequestBody.params(exchange);
     
-    String username = params.get("Username");
-    User toRemoveUser = userList.accessUser(username);
-    userList.removeUser(toRemoveUser);
+    //Ending the session drops the cached User once it was their last one, without a session it's dropped right away
+    String token = Webserver.sessionToken(exchange, params);
+    if( token == null || !userList.endSession(token) ){
+      if(!Webserver.SESSION_REQUIRED){
+        userList.removeUser( userList.accessUser(params.get("Username")) );
+      }
+    }
+    else{
+      exchange.getResponseHeaders().add("Set-Cookie", Webserver.SESSION_COOKIE + "=; Path=/; Max-Age=0");
+    }
 
     String response = "The user has been logged out";
     exchange.sendResponseHeaders(200, response.length());
@@ -296,25 +645,26 @@ class Logout implements HttpHandler{
 class AddHAMFood implements HttpHandler{
 
   private UserList userList;
+  private LeaderBoard lb;
 
-  public AddHAMFood(UserList users){
+  public AddHAMFood(UserList users, LeaderBoard leaderBoard){
     this.userList = users;
+    this.lb = leaderBoard;
   }
 
   public void handle(HttpExchange exchange) throws IOException{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = RequestBody.params(exchange);
 
-    String username = params.get("Username");
     String likedFoods = params.get("LikedFoods");
-    User user = userList.accessUser(username);
+    User user = Webserver.currentUser(exchange, params, userList);
 
-    HAM ham = new HAM(user, userList.returnMongoClient() );
+    HAM ham = new HAM(user, userList.getStorage().tasks() );
     ham.addFood(likedFoods);
     ham.completeTask();
-    user.setFoodSelection(likedFoods);
+    lb.recordCompletion(user.getUsername(), ham);
 
     String response = "Response";
     exchange.sendResponseHeaders(200, response.length());
@@ -330,25 +680,26 @@ class AddHAMFood implements HttpHandler{
 class AddFaculty implements HttpHandler{
 
   private UserList userList;
+  private LeaderBoard lb;
 
-  public AddFaculty(UserList users){
+  public AddFaculty(UserList users, LeaderBoard leaderBoard){
     this.userList = users;
+    this.lb = leaderBoard;
   }
 
   public void handle(HttpExchange exchange) throws IOException{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = RequestBody.params(exchange);
 
-    String username = params.get("Username");
     String selectedFaculty = params.get("SelectedFaculty");
-    User user = userList.accessUser(username);
+    User user = Webserver.currentUser(exchange, params, userList);
 
-    Faculty faculty = new Faculty(user);
+    Faculty faculty = new Faculty(user, userList.getStorage().tasks() );
     faculty.addFaculty(selectedFaculty);
     faculty.completeTask();
-    user.setFacultySelection(selectedFaculty);
+    lb.recordCompletion(user.getUsername(), faculty);
 
     String response = "Response";
     exchange.sendResponseHeaders(200, response.length());
@@ -363,24 +714,26 @@ class AddFaculty implements HttpHandler{
 class AddClasses implements HttpHandler{
 
   private UserList userList;
+  private LeaderBoard lb;
 
-  public AddClasses(UserList users){
+  public AddClasses(UserList users, LeaderBoard leaderBoard){
     this.userList = users;
+    this.lb = leaderBoard;
   }
 
   public void handle(HttpExchange exchange) throws IOException{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = RequestBody.params(exchange);
 
-    String username = params.get("Username");
     String selectedClasses = params.get("SelectedClasses");
-    User user = userList.accessUser(username);
+    User user = Webserver.currentUser(exchange, params, userList);
 
-    Classes classes = new Classes(user, userList.returnMongoClient() );
+    Classes classes = new Classes(user, userList.getStorage().tasks() );
     classes.addClasses(selectedClasses);
     classes.completeTask();
+    lb.recordCompletion(user.getUsername(), classes);
     user.setClasses(selectedClasses);
 
     String response = "Response";
@@ -396,25 +749,26 @@ class AddClasses implements HttpHandler{
 class AddFacilities implements HttpHandler{
 
   private UserList userList;
+  private LeaderBoard lb;
 
-  public AddFacilities(UserList users){
+  public AddFacilities(UserList users, LeaderBoard leaderBoard){
     this.userList = users;
+    this.lb = leaderBoard;
   }
 
   public void handle(HttpExchange exchange) throws IOException{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = RequestBody.params(exchange);
 
-    String username = params.get("Username");
     String likedFacilities = params.get("LikedFacilities");
-    User user = userList.accessUser(username);
+    User user = Webserver.currentUser(exchange, params, userList);
 
-    Facilities facilities = new Facilities(user, userList.returnMongoClient() );
+    Facilities facilities = new Facilities(user, userList.getStorage().tasks() );
     facilities.addFacilities(likedFacilities);
     facilities.completeTask();
-    user.setFacilitiesSelection(likedFacilities);
+    lb.recordCompletion(user.getUsername(), facilities);
 
     String response = "Response";
     exchange.sendResponseHeaders(200, response.length());
@@ -429,25 +783,26 @@ class AddFacilities implements HttpHandler{
 class AddDorm implements HttpHandler{
 
   private UserList userList;
+  private LeaderBoard lb;
 
-  public AddDorm(UserList users){
+  public AddDorm(UserList users, LeaderBoard leaderBoard){
     this.userList = users;
+    this.lb = leaderBoard;
   }
 
   public void handle(HttpExchange exchange) throws IOException{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = RequestBody.params(exchange);
 
-    String username = params.get("Username");
     String selectedDorm = params.get("SelectedDorm");
-    User user = userList.accessUser(username);
+    User user = Webserver.currentUser(exchange, params, userList);
 
-    Dorm dorm = new Dorm(user, userList.returnMongoClient() );
+    Dorm dorm = new Dorm(user, userList.getStorage().tasks() );
     dorm.addDorm(selectedDorm);
     dorm.completeTask();
-    user.setDormSelection(selectedDorm);
+    lb.recordCompletion(user.getUsername(), dorm);
 
     String response = "Response";
     exchange.sendResponseHeaders(200, response.length());
@@ -471,11 +826,10 @@ class UpdateDisplayName implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = RequestBody.params(exchange);
 
-    String username = params.get("Username");
     String newDisplayName = params.get("NewDisplayName");
-    User user = userList.accessUser(username);
+    User user = Webserver.currentUser(exchange, params, userList);
     user.updateDisplayName(newDisplayName);
 
     String response = "User's display name has been updated";
@@ -501,12 +855,11 @@ class UpdatePassword implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = RequestBody.params(exchange);
 
-    String username = params.get("Username");
     String newPassword = params.get("NewPassword");
-    User user = userList.accessUser(username);
-    user.updatePassword(newPassword);
+    User user = Webserver.currentUser(exchange, params, userList);
+    userList.updatePassword(user, newPassword);
 
     String response = "User's password has been updated";
     exchange.sendResponseHeaders(200, response.length());
@@ -531,12 +884,15 @@ class UploadPFP implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    //The image is either the raw body (Username in the query string) or "NewPFPFile" as base64
+    RequestBody.Upload upload = RequestBody.upload(exchange, "NewPFPFile");
+    if(upload.getImage() == null){
+      throw new RequestBody.RejectedException(400, "Missing NewPFPFile");
+    }
 
-    String username = params.get("Username");
-    String newPFPFile = params.get("NewPFPFile");
-    User user = userList.accessUser(username);
-    user.uploadPFP(newPFPFile);
+    User user = Webserver.currentUser(exchange, upload.getParams(), userList);
+    user.uploadPFP( upload.getImage() );
+    userList.getImagePipeline().submit(user.getPFP());
 
     String response = "User's pfp has been uploaded";
     exchange.sendResponseHeaders(200, response.length());
@@ -560,11 +916,10 @@ class UpdateAboutMe implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = RequestBody.params(exchange);
 
-    String username = params.get("Username");
     String newAboutMe = params.get("NewAboutme");
-    User user = userList.accessUser(username);
+    User user = Webserver.currentUser(exchange, params, userList);
     user.updateAboutMe(newAboutMe);
 
     String response = "User's About me has been updated";
@@ -589,11 +944,10 @@ class UpdateContactInformation implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = RequestBody.params(exchange);
 
-    String username = params.get("Username");
     String newContactInfo = params.get("NewContactInformation");
-    User user = userList.accessUser(username);
+    User user = Webserver.currentUser(exchange, params, userList);
     user.updateContactInfo(newContactInfo);
 
     String response = "Response";
@@ -618,11 +972,10 @@ class UpdateCatalyst implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = RequestBody.params(exchange);
 
-    String token = params.get("Username");
     String notes = params.get("Notes");
-    User user = userList.accessUser(token);
+    User user = Webserver.currentUser(exchange, params, userList);
     user.updateCatalystNote(notes);
 
     String response = notes;
@@ -648,11 +1001,10 @@ class UpdateInterests implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = RequestBody.params(exchange);
 
-    String token = params.get("Username");
     String interest = params.get("Interest");
-    User user = userList.accessUser(token);
+    User user = Webserver.currentUser(exchange, params, userList);
     user.updateInterests(interest);
 
 
@@ -663,6 +1015,49 @@ class UpdateInterests implements HttpHandler{
   }
 }
 
+/**
+ * Updates several profile fields of a user at once, e.g. when the whole edit profile form is saved. Takes any of the
+ * names in User.EDITABLE_PROFILE_FIELDS as parameters and saves them all with a single database write.
+ */
+class UpdateProfile implements HttpHandler{
+
+  private UserList userList;
+
+  public UpdateProfile(UserList users){
+    this.userList = users;
+  }
+
+  public void handle(HttpExchange exchange) throws IOException{
+
+    exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+
+    Map<String, String> params = RequestBody.params(exchange);
+
+    User user = Webserver.currentUser(exchange, params, userList);
+
+    int status = 200;
+    String response;
+    if(user == null){
+      status = 404;
+      response = "User not found";
+    }
+    else{
+      List<String> updated = user.updateProfile(params);
+      if(updated.isEmpty()){
+        status = 400;
+        response = "No profile fields to update, expected any of " + User.EDITABLE_PROFILE_FIELDS.keySet();
+      }
+      else{
+        response = "User's profile has been updated: " + updated;
+      }
+    }
+
+    exchange.sendResponseHeaders(status, response.length());
+    exchange.getResponseBody().write(response.getBytes());
+    exchange.getResponseBody().close();
+  }
+}
+
 /**
  * Returns a user's username. This might be used for account management or display purposes.
  */
@@ -678,11 +1073,12 @@ class ReturnUsername implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
 
-    String token = params.get("Username");
-
-    User user = userList.accessUser(token);
+    User user = Webserver.currentUser(exchange, params, userList);
+    if( Webserver.notModified(exchange, user) ){
+      return;
+    }
     String username = user.getUsername();
 
     String response = username;
@@ -707,11 +1103,12 @@ class ReturnDisplayName implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
 
-    String token = params.get("Username");
-
-    User user = userList.accessUser(token);
+    User user = Webserver.currentUser(exchange, params, userList);
+    if( Webserver.notModified(exchange, user) ){
+      return;
+    }
     String displayName = user.getDisplayName();
 
     String response = displayName;
@@ -723,6 +1120,8 @@ class ReturnDisplayName implements HttpHandler{
 
 /**
  * Handles requests to retrieve a user's profile picture. Enhances personalization of user interfaces.
+ * Sends the image bytes, either the current picture of "Username" or, with "Hash", a specific stored image that
+ * the browser can cache forever. "Size" (thumbnail, card or full) asks for a pre-sized version.
  */
 class ReturnPFP implements HttpHandler{
 
@@ -736,22 +1135,22 @@ class ReturnPFP implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
-
-    String token = params.get("Username");
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
 
-    User user = userList.accessUser(token);
-    String pfp = user.getPFP();
+    String hash = params.get("Hash");
+    if(hash != null){
+      Webserver.sendImage(exchange, userList, hash, params.get("Size"), true);
+      return;
+    }
 
-    String response = pfp;
-    exchange.sendResponseHeaders(200, response.length());
-    exchange.getResponseBody().write(response.getBytes() );
-    exchange.getResponseBody().close();
+    User user = Webserver.currentUser(exchange, params, userList);
+    Webserver.sendImage(exchange, userList, user == null ? null : user.getPFP(), params.get("Size"), false);
   }
 }
 
 /**
  * Returns a user's photo gallery. Allows users to share and display a collection of images.
+ * Without "Image" this is the list of image hashes, with "Image" (and optionally "Size") it's that image's bytes.
  */
 class ReturnPhotoGallery implements HttpHandler{
 
@@ -764,19 +1163,68 @@ class ReturnPhotoGallery implements HttpHandler{
   public void handle(HttpExchange exchange) throws IOException{
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
 
-    String token = params.get("Username");
+    User user = Webserver.currentUser(exchange, params, userList);
+    if(user == null){
+      Webserver.sendJson(exchange, 404, new JSONObject().put("Error", "Unknown user"));
+      return;
+    }
 
-    User user = userList.accessUser(token);
-    ArrayList<String> photoGallery = user.getPhotoGallery();
-    Object photos = (Object) photoGallery;
+    //With "Image" the bytes of one photo, otherwise the hashes of all of them
+    String image = params.get("Image");
+    if(image != null){
+      String hash = user.getPhotoGallery().contains(image) ? image : null;
+      Webserver.sendImage(exchange, userList, hash, params.get("Size"), true);
+      return;
+    }
+    if( Webserver.notModified(exchange, user) ){
+      return;
+    }
+    Webserver.sendJson(exchange, 200, new JSONArray(user.getPhotoGallery()));
+  }
+}
 
-    String response = String.valueOf(photos);
-    exchange.sendResponseHeaders(200, response.length());
-    exchange.getResponseBody().write(response.getBytes() );
-    exchange.getResponseBody().close();
+/**
+ * Returns several profile fields of a user as one JSON object, so a profile page is a single request instead of one
+ * per field. The optional "fields" parameter is a comma separated list of names from User.PROFILE_FIELDS; without it
+ * everything except PFP and PhotoGallery is returned, since those are large and only needed on some pages.
+ */
+class ReturnProfile implements HttpHandler{
+
+  private UserList userList;
 
+  public ReturnProfile(UserList users){
+    this.userList = users;
+  }
+
+  public void handle(HttpExchange exchange) throws IOException{
+
+    exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
+
+    String fieldList = params.get("fields");
+    User user = Webserver.currentUser(exchange, params, userList);
+
+    if(user == null){
+      String response = "User not found";
+      exchange.sendResponseHeaders(404, response.length());
+      exchange.getResponseBody().write(response.getBytes());
+      exchange.getResponseBody().close();
+      return;
+    }
+
+    if( Webserver.notModified(exchange, user) ){
+      return;
+    }
+
+    List<String> fields = User.DEFAULT_PROFILE_FIELDS;
+    if(fieldList != null && !fieldList.isEmpty()){
+      fields = Arrays.asList( fieldList.split(",") );
+    }
+
+    Webserver.sendJson(exchange, 200, user.getProfile(fields));
   }
 }
 
@@ -794,10 +1242,12 @@ class ReturnCatalystNotes implements HttpHandler{
   public void handle(HttpExchange exchange) throws IOException{
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
 
-    String token = params.get("Username");
-    User user = userList.accessUser(token);
+    User user = Webserver.currentUser(exchange, params, userList);
+    if( Webserver.notModified(exchange, user) ){
+      return;
+    }
     String notes = user.getCatalystNotes();
 
     String response = notes;
@@ -822,11 +1272,12 @@ class ReturnAboutMe implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
-
-    String token = params.get("Username");
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
 
-    User user = userList.accessUser(token);
+    User user = Webserver.currentUser(exchange, params, userList);
+    if( Webserver.notModified(exchange, user) ){
+      return;
+    }
     String aboutMe = user.getAboutMe();
 
     String response = aboutMe;
@@ -851,11 +1302,12 @@ class ReturnInterests implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
-
-    String token = params.get("Username");
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
 
-    User user = userList.accessUser(token);
+    User user = Webserver.currentUser(exchange, params, userList);
+    if( Webserver.notModified(exchange, user) ){
+      return;
+    }
     String interests = user.getInterests();
 
     String response = interests;
@@ -880,10 +1332,12 @@ class ReturnFood implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
 
-    String token = params.get("Username");
-    User user = userList.accessUser(token);
+    User user = Webserver.currentUser(exchange, params, userList);
+    if( Webserver.notModified(exchange, user) ){
+      return;
+    }
     String food = user.getFoodSelection();
 
     String response = food;
@@ -909,10 +1363,12 @@ class ReturnDorm implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
     
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
 
-    String token = params.get("Username");
-    User user = userList.accessUser(token);
+    User user = Webserver.currentUser(exchange, params, userList);
+    if( Webserver.notModified(exchange, user) ){
+      return;
+    }
     String dorm = user.getDormSelection();
 
     String response = dorm;
@@ -937,10 +1393,12 @@ class ReturnClasses implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
     
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
 
-    String token = params.get("Username");
-    User user = userList.accessUser(token);
+    User user = Webserver.currentUser(exchange, params, userList);
+    if( Webserver.notModified(exchange, user) ){
+      return;
+    }
     String classes = user.getClassesSelection();
 
     String response = classes;
@@ -965,10 +1423,12 @@ class ReturnFacilities implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
     
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
     
-    String token = params.get("Username");
-    User user = userList.accessUser(token);
+    User user = Webserver.currentUser(exchange, params, userList);
+    if( Webserver.notModified(exchange, user) ){
+      return;
+    }
     String facilities = user.getFacilitiesSelection();
 
     String response = facilities;
@@ -993,10 +1453,12 @@ class ReturnFaculty implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
 
-    String token = params.get("Username");
-    User user = userList.accessUser(token);
+    User user = Webserver.currentUser(exchange, params, userList);
+    if( Webserver.notModified(exchange, user) ){
+      return;
+    }
     String faculty = user.getFacultySelection();
 
     String response = faculty;
@@ -1021,10 +1483,12 @@ class ReturnContactInformation implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
 
-    String token = params.get("Username");
-    User user = userList.accessUser(token);
+    User user = Webserver.currentUser(exchange, params, userList);
+    if( Webserver.notModified(exchange, user) ){
+      return;
+    }
     String contactInfo = user.getContactInformation();
 
     String response = contactInfo;
@@ -1050,14 +1514,18 @@ class AddImgToPhotoGallery implements HttpHandler{
 
   public void handle(HttpExchange exchange) throws IOException{
 
-    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getQuery());
+    //The image is either the raw body (Username in the query string) or "New Image" as base64
+    RequestBody.Upload upload = RequestBody.upload(exchange, "New Image");
+    if(upload.getImage() == null){
+      throw new RequestBody.RejectedException(400, "Missing New Image");
+    }
 
-    String token = params.get("Username");
-    String newImg = params.get("New Image");
-    User user = userList.accessUser(token);
-    user.addImgToPhotos(newImg);
+    User user = Webserver.currentUser(exchange, upload.getParams(), userList);
+    user.addImgToPhotos( upload.getImage() );
+    ArrayList<String> photoGallery = user.getPhotoGallery();
+    userList.getImagePipeline().submit(photoGallery.get(photoGallery.size() - 1));
 
-    String response = token;
+    String response = user.getUsername();
     exchange.sendResponseHeaders(200, response.length());
     exchange.getResponseBody().write(response.getBytes());
     exchange.getResponseBody().close();
@@ -1104,30 +1572,345 @@ class ReturnLBInformation implements HttpHandler{
 
     exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
-    ArrayList<ArrayList<String>> lbInfo = lb.returnLists();
+    if( Webserver.notModified(exchange, lb.getETag(), false) ){
+      return;
+    }
 
-    ArrayList<String> responseList = new ArrayList<>();
+    byte[] response = buildResponse( lb.returnLists() );
+    exchange.sendResponseHeaders(200, response.length);
+    exchange.getResponseBody().write(response);
+    exchange.getResponseBody().close();
+    
+  }
 
+  /**
+   * Builds the response body, "username:points," for every user.
+   *
+   * @param lbInfo The leaderboard from LeaderBoard.returnLists().
+   * @return The body as UTF-8.
+   */
+  static byte[] buildResponse(List<ArrayList<String>> lbInfo){
+    StringBuilder builder = new StringBuilder(lbInfo.size() * 24);
     for( ArrayList<String> arrString : lbInfo){
-      String inputResponse = "";
-      for(int i = 0; i < 2; i++){
-        if(i == 1){
-          inputResponse += ":";
-        }
-        inputResponse += arrString.get(i);
-      }
-      responseList.add(inputResponse);
+      builder.append(arrString.get(0)).append(':').append(arrString.get(1)).append(',');
     }
+    return builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
 
-    String response = ""; 
+/**
+ * Reports how busy the server is: the execution model, queued and active requests, and how many were turned away.
+ */
+class ServerStatus implements HttpHandler{
+
+  private RequestExecutor executor;
+  private UserList userList;
+
+  public ServerStatus(RequestExecutor executor, UserList users){
+    this.executor = executor;
+    this.userList = users;
+  }
 
-    for(String str : responseList){
-      response += str + ",";
+  public void handle(HttpExchange exchange) throws IOException{
+
+    exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+
+    JSONObject status = new JSONObject();
+    status.put("Mode", executor.getMode());
+    status.put("Queued", executor.getQueueDepth());
+    status.put("Active", executor.getActiveCount());
+    status.put("Max Pending", executor.getMaxPending());
+    status.put("Completed", executor.getCompletedCount());
+    status.put("Rejected", executor.getRejectedCount());
+    status.put("Refused", executor.getRefusedCount());
+
+    ForumBroadcaster broadcaster = userList.getForum().getBroadcaster();
+    status.put("Forum Stream Clients", broadcaster.getSubscriberCount());
+    status.put("Forum Stream Published", broadcaster.getPublishedCount());
+    status.put("Forum Stream Evicted", broadcaster.getEvictedCount());
+
+    ForumWriteBuffer writeBuffer = userList.getForum().getWriteBuffer();
+    if(writeBuffer != null){
+      status.put("Forum Write Queue", writeBuffer.getQueueDepth());
+      status.put("Forum Write Batches", writeBuffer.getBatchCount());
+      status.put("Forum Write Messages", writeBuffer.getMessageCount());
+      status.put("Forum Write Average Batch Size", writeBuffer.getAverageBatchSize());
+      status.put("Forum Write Largest Batch Size", writeBuffer.getLargestBatchSize());
+      status.put("Forum Write Last Flush Ms", writeBuffer.getLastFlushMillis());
+      status.put("Forum Write Average Flush Ms", writeBuffer.getAverageFlushMillis());
     }
 
-    exchange.sendResponseHeaders(200, response.length());
-    exchange.getResponseBody().write(response.getBytes());
+    SessionStore sessions = userList.getSessions();
+    status.put("Sessions", sessions.getSessionCount());
+    status.put("Session Users", sessions.getUserCount());
+    status.put("Sessionless Users", sessions.getLeaseCount());
+    status.put("Sessions Created", sessions.getCreatedCount());
+    status.put("Sessions Expired", sessions.getExpiredCount());
+    status.put("Cached Users", userList.getCachedUserCount());
+
+    UserWriteBuffer userWrites = userList.getWriteBuffer();
+    if(userWrites != null){
+      status.put("User Write Pending Users", userWrites.getPendingUsers());
+      status.put("User Write Updates", userWrites.getUpdateCount());
+      status.put("User Write Writes", userWrites.getWriteCount());
+      status.put("User Write Failed Writes", userWrites.getFailedWriteCount());
+      status.put("User Write Dropped Writes", userWrites.getDroppedWriteCount());
+      status.put("User Write Last Flush Ms", userWrites.getLastFlushMillis());
+    }
+
+    ImagePipeline images = userList.getImagePipeline();
+    status.put("Image Queue", images.getQueueDepth());
+    status.put("Image Active", images.getActiveCount());
+    status.put("Images Processed", images.getProcessedCount());
+    status.put("Images Failed", images.getFailedCount());
+    status.put("Images Rejected", images.getRejectedCount());
+    for(String stage : new String[]{ "load", "decode", "resize", "encode", "store" }){
+      status.put("Image " + Character.toUpperCase(stage.charAt(0)) + stage.substring(1) + " Average Ms", images.getAverageMillis(stage));
+    }
+
+    Webserver.sendJson(exchange, 200, status);
+  }
+}
+
+/**
+ * Serves the request and MongoDB metrics in the Prometheus text format, for a Prometheus server to scrape.
+ */
+class MetricsHandler implements HttpHandler{
+
+  public void handle(HttpExchange exchange) throws IOException{
+
+    byte[] response = Metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+    exchange.sendResponseHeaders(200, response.length);
+    exchange.getResponseBody().write(response);
     exchange.getResponseBody().close();
-    
   }
-}
\ No newline at end of file
+}
+
+/**
+ * Returns one page of the leaderboard, most points first. "Page" starts at 0 and "PageSize" is capped at 100,
+ * so the frontend never has to download the whole board.
+ */
+class ReturnLBTop implements HttpHandler{
+
+  private LeaderBoard lb;
+
+  public ReturnLBTop( LeaderBoard leaderboard){
+    this.lb = leaderboard;
+  }
+
+  public void handle(HttpExchange exchange) throws IOException{
+
+    exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
+    int page = Webserver.intParam(params, "Page", 0, Integer.MAX_VALUE / 100);
+    int pageSize = Webserver.intParam(params, "PageSize", 10, 100);
+    if( Webserver.notModified(exchange, lb.getETag(), false) ){
+      return;
+    }
+
+    RankedLeaderboard ranking = lb.getRanking();
+    JSONObject response = new JSONObject();
+    response.put("Total", ranking.size());
+    response.put("Page", page);
+    response.put("Entries", LeaderBoard.toJson( ranking.getRange(page * pageSize + 1, pageSize) ));
+
+    Webserver.sendJson(exchange, 200, response);
+  }
+}
+
+/**
+ * Returns a user's rank and points on the leaderboard.
+ */
+class ReturnLBRank implements HttpHandler{
+
+  private LeaderBoard lb;
+  private UserList userList;
+
+  public ReturnLBRank( LeaderBoard leaderboard, UserList users){
+    this.lb = leaderboard;
+    this.userList = users;
+  }
+
+  public void handle(HttpExchange exchange) throws IOException{
+
+    exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
+    User user = Webserver.currentUser(exchange, params, userList);
+    if( user != null && Webserver.notModified(exchange, lb.getETag(user), false) ){
+      return;
+    }
+
+    RankedLeaderboard ranking = lb.getRanking();
+    RankedLeaderboard.Entry entry = user == null ? null : ranking.getEntry(user.getUsername());
+    if(entry == null){
+      Webserver.sendJson(exchange, 404, new JSONObject().put("Error", "User is not on the leaderboard"));
+      return;
+    }
+
+    JSONObject response = new JSONObject();
+    response.put("Username", entry.getUsername());
+    response.put("Points", entry.getPoints());
+    response.put("Rank", entry.getRank());
+    response.put("Total", ranking.size());
+
+    Webserver.sendJson(exchange, 200, response);
+  }
+}
+
+/**
+ * Returns the users ranked just above and below a user, "Range" places each way (capped at 50).
+ */
+class ReturnLBAround implements HttpHandler{
+
+  private LeaderBoard lb;
+  private UserList userList;
+
+  public ReturnLBAround( LeaderBoard leaderboard, UserList users){
+    this.lb = leaderboard;
+    this.userList = users;
+  }
+
+  public void handle(HttpExchange exchange) throws IOException{
+
+    exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
+    User user = Webserver.currentUser(exchange, params, userList);
+    int range = Webserver.intParam(params, "Range", 5, 50);
+    if( user != null && Webserver.notModified(exchange, lb.getETag(user), false) ){
+      return;
+    }
+
+    List<RankedLeaderboard.Entry> entries = lb.getRanking().getAround(user == null ? null : user.getUsername(), range);
+    if(entries.isEmpty()){
+      Webserver.sendJson(exchange, 404, new JSONObject().put("Error", "User is not on the leaderboard"));
+      return;
+    }
+
+    Webserver.sendJson(exchange, 200, new JSONObject().put("Entries", LeaderBoard.toJson(entries)));
+  }
+}
+
+/**
+ * Posts a message to the forum under the user's display name and returns the stored message. With FORUM_WRITE_BEHIND
+ * a post whose batch takes too long is answered with a 202 instead: it may still be written, so the client should
+ * look for its Id rather than post again.
+ */
+class ForumPost implements HttpHandler{
+
+  private UserList userList;
+
+  public ForumPost(UserList users){
+    this.userList = users;
+  }
+
+  public void handle(HttpExchange exchange) throws IOException{
+
+    exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+
+    Map<String, String> params = RequestBody.params(exchange);
+
+    String message = params.get("Message");
+    User user = Webserver.currentUser(exchange, params, userList);
+
+    if(user == null){
+      Webserver.sendJson(exchange, 404, new JSONObject().put("Error", "User not found"));
+      return;
+    }
+    if(message == null || message.trim().isEmpty()){
+      Webserver.sendJson(exchange, 400, new JSONObject().put("Error", "Message is empty"));
+      return;
+    }
+
+    Document posted;
+    try{
+      posted = userList.getForum().addMessage(message, user.getDisplayName());
+    }
+    catch(ForumWriteBuffer.UnconfirmedException e){
+      //Queued but not written yet, it may still appear: retrying would post it twice, so give the id to look for
+      Webserver.sendJson(exchange, 202, Forums.toJson(e.getPost()).put("Status", "Pending"));
+      return;
+    }
+    catch(IllegalStateException e){
+      //The write buffer is full, same as the server being busy
+      exchange.getResponseHeaders().add("Retry-After", "1");
+      Webserver.sendJson(exchange, 503, new JSONObject().put("Error", e.getMessage()));
+      return;
+    }
+    Webserver.sendJson(exchange, 200, Forums.toJson(posted));
+  }
+}
+
+/**
+ * Returns a page of forum messages, newest first. "Before" takes the id of the oldest message shown to load older ones,
+ * "After" takes the id of the newest message shown to load newer ones, and "Limit" is capped at Forums.MAX_PAGE_SIZE.
+ * "Next" in the response is the cursor for the following page in the same direction, or null at the end: with
+ * "After" it's the newest message's id, to pass as the next "After", otherwise the oldest one's, to pass as "Before".
+ */
+class ForumMessages implements HttpHandler{
+
+  private UserList userList;
+
+  public ForumMessages(UserList users){
+    this.userList = users;
+  }
+
+  public void handle(HttpExchange exchange) throws IOException{
+
+    exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+
+    Map<String, String> params = Webserver.queryToMap(exchange.getRequestURI().getRawQuery());
+    int limit = Webserver.intParam(params, "Limit", 20, Forums.MAX_PAGE_SIZE);
+
+    List<Document> messages;
+    try{
+      messages = userList.getForum().getPage(params.get("Before"), params.get("After"), limit);
+    }
+    catch(IllegalArgumentException e){
+      Webserver.sendJson(exchange, 400, new JSONObject().put("Error", e.getMessage()));
+      return;
+    }
+
+    JSONArray page = new JSONArray();
+    for(Document message : messages){
+      page.put( Forums.toJson(message) );
+    }
+
+    JSONObject response = new JSONObject();
+    response.put("Messages", page);
+    boolean full = messages.size() == Math.max(1, limit);
+    boolean forward = params.get("After") != null;
+    Document cursor = !full ? null : forward ? messages.get(0) : messages.get(messages.size() - 1);
+    response.put("Next", cursor == null ? JSONObject.NULL : cursor.getObjectId("_id").toHexString());
+
+    Webserver.sendJson(exchange, 200, response);
+  }
+}
+
+/**
+ * Streams new forum messages to the client as Server-Sent Events (EventSource in the browser) instead of having it
+ * poll /ForumMessages. Each event's id is the message id, so after a reconnect the client can load anything it
+ * missed with /ForumMessages?After=.
+ */
+class ForumStream implements HttpHandler{
+
+  private UserList userList;
+
+  public ForumStream(UserList users){
+    this.userList = users;
+  }
+
+  public void handle(HttpExchange exchange) throws IOException{
+
+    exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+
+    //The stream stays open after this returns, the broadcaster's writer threads send the events
+    if( !userList.getForum().getBroadcaster().subscribe(exchange) ){
+      exchange.getResponseHeaders().add("Retry-After", "5");
+      Webserver.sendJson(exchange, 503, new JSONObject().put("Error", "Too many forum stream clients"));
+    }
+  }
+}
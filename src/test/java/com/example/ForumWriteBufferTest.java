@@ -0,0 +1,95 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+
+/**
+ * Unit tests for ForumWriteBuffer, writing to MemoryStorage.
+ */
+public class ForumWriteBufferTest
+{
+    @Test
+    public void onlyThePostThatFailedIsReportedAsFailed()
+    {
+        final ForumRepository stored = new MemoryStorage().forum();
+        final ObjectId rejected = new ObjectId();
+        ForumRepository failing = new ForumRepository(){
+            public void insert(Document message){ stored.insert(message); }
+            public void insertMany(List<Document> messages){
+                //Writes everything but the rejected post, like an unordered insertMany with one error
+                List<BulkWriteError> errors = new ArrayList<>();
+                for(int i = 0; i < messages.size(); i++){
+                    if( rejected.equals(messages.get(i).getObjectId("_id")) ){
+                        errors.add(new BulkWriteError(11000, "duplicate key", new BsonDocument(), i));
+                    }
+                    else{
+                        stored.insert(messages.get(i));
+                    }
+                }
+                if( !errors.isEmpty() ){
+                    throw new MongoBulkWriteException(BulkWriteResult.unacknowledged(), errors, null, new ServerAddress());
+                }
+            }
+            public List<Document> findPage(ObjectId before, ObjectId after, int limit){ return stored.findPage(before, after, limit); }
+            public List<Document> findAll(){ return stored.findAll(); }
+        };
+        ForumBroadcaster broadcaster = new ForumBroadcaster(10, 10, 1, 1000);
+        //Long linger so both posts go into one batch
+        final ForumWriteBuffer buffer = new ForumWriteBuffer(failing, broadcaster, 2, 10000, 10);
+
+        final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+        List<Thread> posters = new ArrayList<>();
+        for(final ObjectId id : Arrays.asList(new ObjectId(), rejected)){
+            Thread poster = new Thread(){
+                public void run(){
+                    try{
+                        results.add( buffer.submit(new Document("_id", id).append("Message", "hi")).getObjectId("_id") );
+                    }
+                    catch(MongoException e){
+                        results.add(e);
+                    }
+                }
+            };
+            poster.start();
+            posters.add(poster);
+        }
+        for(Thread poster : posters){
+            try{
+                poster.join(10000);
+            }
+            catch(InterruptedException e){
+                fail("Interrupted");
+            }
+        }
+
+        assertEquals(2, results.size());
+        int failed = 0;
+        for(Object result : results){
+            if(result instanceof MongoException){
+                assertEquals(11000, ((MongoException) result).getCode());
+                failed++;
+            }
+        }
+        assertEquals(1, failed);
+        assertEquals(1, stored.findAll().size());
+        assertEquals(1, buffer.getMessageCount());
+        buffer.shutdown();
+        broadcaster.shutdown();
+    }
+}
@@ -0,0 +1,49 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for LatencyHistogram, checked against sorting the recorded values.
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void bucketsCoverEveryValueInOrder()
+    {
+        long previousUpper = -1;
+        for(int i = 0; i < 600; i++){
+            assertEquals(previousUpper + 1, LatencyHistogram.lowerBound(i));
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.lowerBound(i)));
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.upperBound(i)));
+            previousUpper = LatencyHistogram.upperBound(i);
+        }
+    }
+
+    @Test
+    public void quantilesAreWithinBucketError()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(7);
+        long[] values = new long[100000];
+        for(int i = 0; i < values.length; i++){
+            //Mostly around a millisecond with a long tail, like request latencies
+            values[i] = (long) (1000000 * Math.exp(random.nextGaussian()));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(values.length, histogram.getCount());
+        for(double quantile : new double[]{ 0.5, 0.9, 0.99, 0.999 }){
+            long expected = values[(int) Math.ceil(quantile * values.length) - 1];
+            long actual = histogram.getQuantile(quantile);
+            assertTrue(quantile + ": " + actual + " vs " + expected, Math.abs(actual - expected) <= expected * 0.07);
+        }
+        assertEquals(0, new LatencyHistogram().getQuantile(0.5));
+    }
+}
@@ -0,0 +1,129 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+/**
+ * Unit tests for MemoryStorage, and for the leaderboard and forum running on top of it.
+ */
+public class MemoryStorageTest
+{
+    @Test
+    public void storedDocumentsCantBeChangedFromOutside()
+    {
+        MemoryStorage storage = new MemoryStorage();
+        Document user = new Document("Username", "alice").append("Dorm Selection", "West");
+        storage.users().insert(user);
+
+        user.put("Dorm Selection", "East");
+        storage.users().find("alice").put("Dorm Selection", "South");
+        assertEquals("West", storage.users().find("alice").getString("Dorm Selection"));
+
+        storage.users().update("alice", "Dorm Selection", "North");
+        assertEquals("North", storage.users().find("alice").getString("Dorm Selection"));
+        assertNull(storage.users().find("bob"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void usernamesAreUnique()
+    {
+        MemoryStorage storage = new MemoryStorage();
+        storage.users().insert(new Document("Username", "alice"));
+        storage.users().insert(new Document("Username", "alice"));
+    }
+
+    @Test
+    public void taskIsOnlyScoredOnce()
+    {
+        MemoryStorage storage = new MemoryStorage();
+        new User("Alice", "alice", "pw", "", storage);
+        LeaderBoard leaderBoard = new LeaderBoard(storage);
+
+        new Dorm(new User("alice", storage), storage.tasks()).completeTask();
+        new Dorm(new User("alice", storage), storage.tasks()).completeTask();
+        leaderBoard.getTasksInformation();
+        leaderBoard.getTasksInformation();
+
+        assertEquals(LeaderBoard.POINTS_PER_TASK, leaderBoard.getRanking().getEntry("alice").getPoints());
+        assertNull(storage.leaderboard().completeTask("alice", "Dorm", LeaderBoard.POINTS_PER_TASK));
+    }
+
+    @Test
+    public void tasksAreReadAfterTheSavedProgress()
+    {
+        TaskRepository tasks = new MemoryStorage().tasks();
+        Document first = new Document("Username", "alice");
+        Document second = new Document("Username", "bob");
+        tasks.insert("Dorm", first);
+        tasks.insert("Dorm", second);
+
+        assertEquals(2, count(tasks.findAfter("Dorm", null)));
+        tasks.setProgress("Dorm", first.getObjectId("_id"));
+        List<Document> rest = list(tasks.findAfter("Dorm", tasks.getProgress("Dorm")));
+        assertEquals(1, rest.size());
+        assertEquals("bob", rest.get(0).getString("Username"));
+        assertNull(tasks.getProgress("Food"));
+    }
+
+    @Test
+    public void forumPagesAreNewestFirst()
+    {
+        ForumRepository forum = new MemoryStorage().forum();
+        List<ObjectId> ids = new ArrayList<>();
+        for(int i = 0; i < 5; i++){
+            ObjectId id = new ObjectId();
+            ids.add(id);
+            forum.insert(new Document("_id", id).append("Message", "m" + i));
+        }
+
+        assertEquals(ids.get(4), forum.findPage(null, null, 2).get(0).getObjectId("_id"));
+        List<Document> before = forum.findPage(ids.get(3), null, 2);
+        assertEquals(ids.get(2), before.get(0).getObjectId("_id"));
+        assertEquals(ids.get(1), before.get(1).getObjectId("_id"));
+        List<Document> after = forum.findPage(null, ids.get(0), 2);
+        assertEquals(ids.get(2), after.get(0).getObjectId("_id"));
+        assertEquals(ids.get(1), after.get(1).getObjectId("_id"));
+        assertTrue(forum.findPage(null, ids.get(4), 2).isEmpty());
+    }
+
+    @Test
+    public void imagesAreKeptByTheHashOfTheirBytes()
+    {
+        ImageRepository images = new MemoryStorage().images();
+        byte[] image = {1, 2, 3};
+        String hash = images.store(image);
+        image[0] = 9;
+
+        assertEquals(Images.sha256(new byte[]{1, 2, 3}), hash);
+        assertEquals(hash, images.store(new byte[]{1, 2, 3}));
+        assertEquals(1, images.load(hash)[0]);
+        assertNull(images.load("not a hash"));
+
+        assertTrue( !images.hasVariant(hash, "thumbnail") );
+        images.storeVariant(hash, "thumbnail", new byte[]{4});
+        assertTrue( images.hasVariant(hash, "thumbnail") );
+        assertEquals(4, images.loadVariant(hash, "thumbnail")[0]);
+    }
+
+    private static int count(Iterable<Document> docs)
+    {
+        return list(docs).size();
+    }
+
+    private static List<Document> list(Iterable<Document> docs)
+    {
+        List<Document> list = new ArrayList<>();
+        for(Document doc : docs){
+            list.add(doc);
+        }
+        return list;
+    }
+}
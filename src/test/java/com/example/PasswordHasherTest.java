@@ -0,0 +1,71 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.bson.Document;
+import org.junit.Test;
+
+/**
+ * Unit tests for PasswordHasher and the login path using it.
+ */
+public class PasswordHasherTest
+{
+    @Test
+    public void hashesAreSaltedAndVerify()
+    {
+        PasswordHasher hasher = new PasswordHasher(1000, 1, 4);
+        String first = hasher.hash("hunter2");
+        String second = hasher.hash("hunter2");
+
+        assertTrue(first.startsWith("pbkdf2$1000$"));
+        assertNotEquals(first, second);
+        assertTrue(hasher.verify("hunter2", first));
+        assertTrue(hasher.verify("hunter2", second));
+        assertFalse(hasher.verify("hunter3", first));
+        assertFalse(hasher.verify("hunter2", "pbkdf2$1000$not base64$"));
+        assertFalse(hasher.verify("hunter2", null));
+        assertFalse(hasher.needsRehash(first));
+        assertTrue(new PasswordHasher(2000, 1, 4).needsRehash(first));
+        hasher.shutdown();
+    }
+
+    @Test
+    public void plainTextPasswordsStillVerify()
+    {
+        PasswordHasher hasher = new PasswordHasher(1000, 1, 4);
+        assertTrue(hasher.verify("hunter2", "hunter2"));
+        assertFalse(hasher.verify("hunter2", "hunter22"));
+        assertTrue(hasher.needsRehash("hunter2"));
+        hasher.shutdown();
+    }
+
+    @Test
+    public void loginReplacesPlainTextPassword()
+    {
+        System.setProperty("PASSWORD_ITERATIONS", "1000");
+        try{
+            MemoryStorage storage = new MemoryStorage();
+            storage.users().insert(new Document("Username", "alice").append("Password", "hunter2"));
+            UserList userList = new UserList(storage, "names");
+
+            assertEquals("False", userList.checkLogin("alice", "wrong"));
+            assertEquals("False", userList.checkLogin("bob", "hunter2"));
+            assertEquals("True", userList.checkLogin("alice", "hunter2"));
+            String stored = storage.users().find("alice").getString("Password");
+            assertTrue(PasswordHasher.isHashed(stored));
+            assertEquals("True", userList.checkLogin("alice", "hunter2"));
+
+            assertTrue(userList.createUser("Bob", "bob", "secret", ""));
+            assertTrue(PasswordHasher.isHashed(storage.users().find("bob").getString("Password")));
+            assertEquals("True", userList.checkLogin("bob", "secret"));
+            userList.getPasswordHasher().shutdown();
+            userList.getImagePipeline().shutdown();
+        }
+        finally{
+            System.clearProperty("PASSWORD_ITERATIONS");
+        }
+    }
+}
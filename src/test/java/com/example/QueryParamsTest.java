@@ -0,0 +1,83 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for QueryParams, the query string and form body parser.
+ */
+public class QueryParamsTest
+{
+    @Test
+    public void decodesPercentEncodingAndPlus()
+    {
+        QueryParams params = QueryParams.parse("Username=ann&About+Me=Hi%2C+I%27m+%C3%85sa%21&Message=a%26b%3Dc");
+
+        assertEquals("ann", params.get("Username"));
+        assertEquals("Hi, I'm Åsa!", params.get("About Me"));
+        assertEquals("a&b=c", params.get("Message"));
+        assertEquals("😀", QueryParams.parse("e=%F0%9F%98%80").get("e"));
+    }
+
+    @Test
+    public void emptyAndMissingValues()
+    {
+        assertTrue(QueryParams.parse(null).isEmpty());
+        assertTrue(QueryParams.parse("").isEmpty());
+        assertTrue(QueryParams.parse("&&=x").isEmpty());
+
+        QueryParams params = QueryParams.parse("a=&b&c=1=2");
+        assertEquals("", params.get("a"));
+        assertEquals("", params.get("b"));
+        assertEquals("1=2", params.get("c"));
+        assertNull(params.get("d"));
+    }
+
+    @Test
+    public void keepsMalformedEscapes()
+    {
+        assertEquals("100%", QueryParams.parse("p=100%").get("p"));
+        assertEquals("%zz%4", QueryParams.parse("p=%zz%4").get("p"));
+    }
+
+    @Test
+    public void repeatedKeys()
+    {
+        QueryParams params = QueryParams.parse("Class=CS101&Class=MA201&Name=x&Class=PH100");
+
+        assertEquals("CS101", params.get("Class"));
+        assertEquals(Arrays.asList("CS101", "MA201", "PH100"), params.getAll("Class"));
+        assertEquals(Arrays.asList("x"), params.getAll("Name"));
+        assertTrue(params.getAll("Missing").isEmpty());
+    }
+
+    @Test
+    public void longValuesGrowTheBuffer()
+    {
+        StringBuilder raw = new StringBuilder("v=");
+        StringBuilder expected = new StringBuilder();
+        for(int i = 0; i < 5000; i++){
+            raw.append("%C3%A9+");
+            expected.append("é ");
+        }
+        assertEquals(expected.toString(), QueryParams.parse(raw).get("v"));
+    }
+
+    @Test
+    public void valuesLargerThanTheKeptBuffer()
+    {
+        StringBuilder raw = new StringBuilder("v=+");
+        StringBuilder expected = new StringBuilder(" ");
+        for(int i = 0; i < 70000; i++){
+            raw.append("é%2B");
+            expected.append("é+");
+        }
+        assertEquals(expected.toString(), QueryParams.parse(raw).get("v"));
+        assertEquals("a b", QueryParams.parse("v=a+b").get("v"));
+    }
+}
@@ -0,0 +1,97 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for RankedLeaderboard, checked against simply sorting every entry.
+ */
+public class RankedLeaderboardTest
+{
+    @Test
+    public void ranksByPointsThenUsername()
+    {
+        RankedLeaderboard board = new RankedLeaderboard();
+        board.update("carol", 100);
+        board.update("alice", 300);
+        board.update("bob", 100);
+
+        assertEquals(1, board.getEntry("alice").getRank());
+        assertEquals(2, board.getEntry("bob").getRank());
+        assertEquals(3, board.getEntry("carol").getRank());
+        assertNull(board.getEntry("dave"));
+
+        board.update("carol", 400);
+        assertEquals(1, board.getEntry("carol").getRank());
+        assertEquals(3, board.getEntry("bob").getRank());
+
+        List<RankedLeaderboard.Entry> around = board.getAround("alice", 1);
+        assertEquals(3, around.size());
+        assertEquals("carol", around.get(0).getUsername());
+        assertEquals("bob", around.get(2).getUsername());
+    }
+
+    @Test
+    public void raiseIgnoresLowerPoints()
+    {
+        RankedLeaderboard board = new RankedLeaderboard();
+        board.raise("alice", 200);
+        board.raise("alice", 100);
+        board.raise("bob", 150);
+
+        assertEquals(200, board.getEntry("alice").getPoints());
+        assertEquals(1, board.getEntry("alice").getRank());
+        assertEquals(2, board.size());
+    }
+
+    @Test
+    public void matchesSortedListAfterRandomUpdates()
+    {
+        RankedLeaderboard board = new RankedLeaderboard();
+        Map<String, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for(int i = 0; i < 5000; i++){
+            String username = "user" + random.nextInt(500);
+            if(random.nextInt(10) == 0){
+                board.remove(username);
+                expected.remove(username);
+            }
+            else{
+                int points = random.nextInt(6) * 100;
+                board.update(username, points);
+                expected.put(username, points);
+            }
+        }
+
+        List<String> sorted = new ArrayList<>(expected.keySet());
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int byPoints = Integer.compare(expected.get(b), expected.get(a));
+                return byPoints != 0 ? byPoints : a.compareTo(b);
+            }
+        });
+
+        assertEquals(sorted.size(), board.size());
+        for(int i = 0; i < sorted.size(); i++){
+            assertEquals(i + 1, board.getEntry(sorted.get(i)).getRank());
+        }
+
+        List<RankedLeaderboard.Entry> page = board.getRange(21, 10);
+        for(int i = 0; i < page.size(); i++){
+            assertEquals(sorted.get(20 + i), page.get(i).getUsername());
+            assertEquals(21 + i, page.get(i).getRank());
+        }
+    }
+}
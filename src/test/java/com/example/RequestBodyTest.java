@@ -0,0 +1,87 @@
+package com.example;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for RequestBody's form encoded uploads, which have to come out the same as Images.decodeUpload.
+ */
+public class RequestBodyTest
+{
+    private static RequestBody.Upload form(String body) throws IOException
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        return RequestBody.readForm(new ByteArrayInputStream(bytes), bytes.length, "New Image");
+    }
+
+    @Test
+    public void imageFieldIsDecodedLikeDecodeUpload() throws IOException
+    {
+        byte[] image = new byte[20000];
+        new Random(1).nextBytes(image);
+        String base64 = Base64.getMimeEncoder().encodeToString(image);
+
+        String[] values = {
+            base64,
+            "data:image/png;base64," + base64,
+            base64.replace('+', ' '),
+            "aGk",
+            "aGk=",
+            "dat",
+            "",
+            "cat.png",
+            "data:no comma",
+            "aGk==",
+        };
+        for(String value : values){
+            String encoded = URLEncoder.encode(value, "UTF-8");
+            RequestBody.Upload upload = form("Username=ann&New+Image=" + encoded + "&Token=t%26");
+            assertArrayEquals(value, Images.decodeUpload(value), upload.getImage());
+            assertEquals("ann", upload.getParams().get("Username"));
+            assertEquals("t&", upload.getParams().get("Token"));
+            assertNull(upload.getParams().get("New Image"));
+        }
+    }
+
+    @Test
+    public void plusAndUnescapedCharactersInTheImage() throws IOException
+    {
+        //Clients that don't escape the base64 send '+' and '/' as they are
+        byte[] image = { (byte) 0xfb, (byte) 0xff, (byte) 0xbf };
+        assertArrayEquals(image, form("New Image=+/+/").getImage());
+        assertArrayEquals("%zz".getBytes(StandardCharsets.UTF_8), form("New Image=%zz").getImage());
+        assertArrayEquals("%a".getBytes(StandardCharsets.UTF_8), form("New Image=%a").getImage());
+    }
+
+    @Test
+    public void missingImageAndRepeatedField() throws IOException
+    {
+        RequestBody.Upload upload = form("Username=ann&flag");
+        assertNull(upload.getImage());
+        assertEquals("", upload.getParams().get("flag"));
+
+        upload = form("New+Image=aGk&New+Image=aGV5");
+        assertArrayEquals("hi".getBytes(StandardCharsets.UTF_8), upload.getImage());
+        assertEquals("aGV5", upload.getParams().get("New Image"));
+    }
+
+    @Test(expected = RequestBody.RejectedException.class)
+    public void largeImageThatIsNotBase64IsRefused() throws IOException
+    {
+        StringBuilder value = new StringBuilder();
+        while(value.length() < 100000){
+            value.append("not base64! ");
+        }
+        form("New Image=" + value);
+    }
+}
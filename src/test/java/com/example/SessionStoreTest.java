@@ -0,0 +1,129 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.bson.Document;
+import org.junit.Test;
+
+/**
+ * Unit tests for SessionStore and the UserList sessions built on it.
+ */
+public class SessionStoreTest
+{
+    @Test
+    public void tokensResolveUntilEnded()
+    {
+        List<String> ended = new CopyOnWriteArrayList<>();
+        SessionStore store = new SessionStore(60000, 1000, record(ended));
+        String phone = store.create("alice");
+        String laptop = store.create("alice");
+
+        assertNotEquals(phone, laptop);
+        assertEquals(43, phone.length());
+        assertEquals("alice", store.resolve(phone));
+        assertNull(store.resolve("alice"));
+        assertNull(store.resolve(null));
+        assertEquals(2, store.getSessionCount());
+        assertEquals(1, store.getUserCount());
+
+        assertTrue(store.end(phone));
+        assertFalse(store.end(phone));
+        assertNull(store.resolve(phone));
+        assertTrue(ended.isEmpty());
+        assertTrue(store.end(laptop));
+        assertEquals(1, ended.size());
+        assertEquals(0, store.getUserCount());
+        store.shutdown();
+    }
+
+    @Test
+    public void idleSessionsExpireAndUsedOnesSlide() throws InterruptedException
+    {
+        List<String> ended = new CopyOnWriteArrayList<>();
+        SessionStore store = new SessionStore(300, 10, record(ended));
+        String idle = store.create("alice");
+        String busy = store.create("bob");
+
+        //Used every 50ms for well past the idle timeout
+        for(int i = 0; i < 16; i++){
+            Thread.sleep(50);
+            assertEquals("bob", store.resolve(busy));
+        }
+        assertEquals(1, ended.size());
+        assertEquals("alice", ended.get(0));
+        assertNull(store.resolve(idle));
+        assertEquals(1, store.getExpiredCount());
+
+        //Expired by the wheel without ever being looked up again
+        long deadline = System.currentTimeMillis() + 5000;
+        while( ended.size() < 2 && System.currentTimeMillis() < deadline ){
+            Thread.sleep(20);
+        }
+        assertEquals("bob", ended.get(1));
+        assertEquals(0, store.getSessionCount());
+        store.shutdown();
+    }
+
+    @Test
+    public void sessionlessUsersExpireToo() throws InterruptedException
+    {
+        List<String> ended = new CopyOnWriteArrayList<>();
+        SessionStore store = new SessionStore(200, 10, record(ended));
+        store.touch("alice");
+        store.touch("alice");
+        String token = store.create("alice");
+        assertEquals(1, store.getLeaseCount());
+        assertEquals(1, store.getUserCount());
+
+        //The lease still holds the user after the session ends
+        store.end(token);
+        assertTrue(ended.isEmpty());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while( ended.isEmpty() && System.currentTimeMillis() < deadline ){
+            Thread.sleep(20);
+        }
+        assertEquals("alice", ended.get(0));
+        assertEquals(0, store.getLeaseCount());
+        assertEquals(0, store.getUserCount());
+        assertEquals(0, store.getExpiredCount());
+        store.shutdown();
+    }
+
+    @Test
+    public void lastSessionEndingDropsCachedUser()
+    {
+        MemoryStorage storage = new MemoryStorage();
+        storage.users().insert(new Document("Username", "alice"));
+        UserList userList = new UserList(storage, "none");
+
+        String token = userList.startSession("alice");
+        User user = userList.accessSession(token);
+        assertEquals("alice", user.getUsername());
+        assertEquals(1, userList.getCachedUserCount());
+
+        assertTrue(userList.endSession(token));
+        assertEquals(0, userList.getCachedUserCount());
+        assertNull(userList.accessSession(token));
+        userList.getSessions().shutdown();
+        userList.getPasswordHasher().shutdown();
+        userList.getImagePipeline().shutdown();
+    }
+
+    private static Consumer<String> record(final List<String> ended)
+    {
+        return new Consumer<String>(){
+            public void accept(String username){
+                ended.add(username);
+            }
+        };
+    }
+}
@@ -0,0 +1,152 @@
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bson.Document;
+import org.junit.Test;
+
+/**
+ * Unit tests for UserWriteBuffer, writing to MemoryStorage.
+ */
+public class UserWriteBufferTest
+{
+    @Test
+    public void changesAreCoalescedIntoOneWritePerUser()
+    {
+        MemoryStorage storage = new MemoryStorage();
+        storage.users().insert(new Document("Username", "alice"));
+        UserWriteBuffer buffer = new UserWriteBuffer(storage.users(), 60000);
+
+        buffer.update("alice", "Dorm Selection", "West");
+        buffer.update("alice", "Dorm Selection", "East");
+        buffer.update("alice", "Interests", "Chess");
+        assertEquals(null, storage.users().find("alice").get("Dorm Selection"));
+        assertEquals("East", buffer.find("alice").getString("Dorm Selection"));
+
+        buffer.flush();
+        assertEquals(3, buffer.getUpdateCount());
+        assertEquals(1, buffer.getWriteCount());
+        assertEquals(0, buffer.getPendingUsers());
+        assertEquals("East", storage.users().find("alice").getString("Dorm Selection"));
+        assertEquals("Chess", storage.users().find("alice").getString("Interests"));
+        buffer.shutdown();
+    }
+
+    @Test
+    public void pendingChangesAreWrittenOnShutdown()
+    {
+        MemoryStorage storage = new MemoryStorage();
+        storage.users().insert(new Document("Username", "alice"));
+        UserWriteBuffer buffer = new UserWriteBuffer(storage.users(), 60000);
+
+        List<String> gallery = new ArrayList<>(Arrays.asList("a"));
+        buffer.update("alice", "Photo Gallery", gallery);
+        gallery.add("b");    //Changed after the setter returned, the buffered value is what was set
+        buffer.shutdown();
+
+        assertEquals(Arrays.asList("a"), storage.users().find("alice").get("Photo Gallery"));
+    }
+
+    @Test
+    public void usersWriteThroughTheBuffer()
+    {
+        MemoryStorage storage = new MemoryStorage();
+        UserWriteBuffer buffer = new UserWriteBuffer(storage.users(), 60000);
+        User user = new User("Alice", "alice", "pw", "", buffer.wrap(storage));
+
+        new Dorm(user, storage.tasks()).addDorm("West");
+        user.updateInterests("Chess");
+        assertEquals("West", new User("alice", buffer.wrap(storage)).getDormSelection());
+
+        buffer.flush();
+        assertEquals(1, buffer.getWriteCount());
+        assertEquals("Chess", storage.users().find("alice").getString("Interests"));
+        buffer.shutdown();
+    }
+
+    @Test
+    public void writesThatKeepFailingAreDropped()
+    {
+        final MemoryStorage storage = new MemoryStorage();
+        storage.users().insert(new Document("Username", "alice"));
+        UserRepository failing = new UserRepository(){
+            public Document find(String username){ return storage.users().find(username); }
+            public Iterable<Document> findAll(){ return storage.users().findAll(); }
+            public Iterable<String> findAllUsernames(){ return storage.users().findAllUsernames(); }
+            public void insert(Document user){ storage.users().insert(user); }
+            public void update(String username, String field, Object value){ throw new IllegalStateException("down"); }
+            public void update(String username, Map<String, ?> fields){ throw new IllegalStateException("down"); }
+        };
+        UserWriteBuffer buffer = new UserWriteBuffer(failing, 60000, 2);
+
+        buffer.update("alice", "Interests", "Chess");
+        buffer.flush();
+        buffer.flush();
+        assertEquals(1, buffer.getPendingUsers());
+        assertEquals("Chess", buffer.find("alice").getString("Interests"));
+
+        buffer.flush();
+        assertEquals(3, buffer.getFailedWriteCount());
+        assertEquals(1, buffer.getDroppedWriteCount());
+        assertEquals(0, buffer.getPendingUsers());
+        assertEquals(null, buffer.find("alice").get("Interests"));
+
+        try{
+            buffer.update("alice", "Password", "new");
+            fail("A password change must not be buffered");
+        }
+        catch(IllegalStateException e){
+            assertEquals(0, buffer.getPendingUsers());
+        }
+        buffer.shutdown();
+    }
+
+    @Test
+    public void passwordsAreWrittenRightAway()
+    {
+        MemoryStorage storage = new MemoryStorage();
+        storage.users().insert(new Document("Username", "alice"));
+        UserWriteBuffer buffer = new UserWriteBuffer(storage.users(), 60000);
+
+        buffer.update("alice", "Password", "hash");
+        assertEquals("hash", storage.users().find("alice").getString("Password"));
+        assertEquals(0, buffer.getPendingUsers());
+        buffer.shutdown();
+    }
+
+    @Test
+    public void findSeesChangesWhileTheyAreFlushed() throws InterruptedException
+    {
+        MemoryStorage storage = new MemoryStorage();
+        storage.users().insert(new Document("Username", "alice"));
+        final UserWriteBuffer buffer = new UserWriteBuffer(storage.users(), 60000);
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread flusher = new Thread(){
+            public void run(){
+                while( !done.get() ){
+                    buffer.flush();
+                }
+            }
+        };
+        flusher.start();
+
+        try{
+            for(int i = 0; i < 20000; i++){
+                buffer.update("alice", "Interests", "v" + i);
+                assertEquals("v" + i, buffer.find("alice").getString("Interests"));
+            }
+        }
+        finally{
+            done.set(true);
+            flusher.join();
+            buffer.shutdown();
+        }
+    }
+}